@@ -31,19 +31,23 @@ public class Main {
 
     System.out.println("isEmpty: " + tree.isEmpty());
 
-    while (true) {
-      try {
-        String query = br.readLine();
-        if (query == null || query.equals("EXIT")) return;
-        queryProcessor(query);
-      } catch (IOException e) {
-        e.printStackTrace();
+    // one executor for the whole session, closing it flushes the buffered pages of every table
+    try (QueryExecutor executor = new QueryExecutor()) {
+      while (true) {
+        try {
+          String query = br.readLine();
+          if (query == null || query.equals("EXIT")) return;
+          queryProcessor(executor, query);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
       }
+    } catch (IOException e) {
+      e.printStackTrace();
     }
   }
 
-  public static void queryProcessor(String query) throws IOException {
-    QueryExecutor executor = new QueryExecutor();
+  public static void queryProcessor(QueryExecutor executor, String query) throws IOException {
     List<Tuple> result = executor.execute(query);
 
     if (result != null) {
@@ -0,0 +1,228 @@
+package com.anton.record;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// on disk form of the catalog -> a binary snapshot plus an append-only log of the DDL done since
+// snapshot -> | magic | version | table count | table * count |
+// log      -> | length | crc32 | kind | table or name | * -> one small record (and one fsync) per DDL
+// table    -> name, file name, mmap, page size, column count, (column name, type) * count
+// loading replays the log over the snapshot, compaction writes a new snapshot and empties the log
+// replay is idempotent -> a crash between writing the snapshot and emptying the log loses nothing
+public class CatalogFile {
+  private static final int MAGIC = 0x414E5443; // "ANTC"
+  private static final int FORMAT_VERSION = 1;
+  public static final int COMPACT_AFTER = 1000; // log records
+
+  private static final byte CREATE = 1;
+  private static final byte DROP = 2;
+
+  private final File snapshotFile;
+  private final File logFile;
+  private int logRecords = 0;
+
+  public CatalogFile(File snapshotFile) {
+    this.snapshotFile = snapshotFile;
+    this.logFile = new File(snapshotFile.getPath() + ".log");
+  }
+
+  public boolean exists() {
+    return this.snapshotFile.exists();
+  }
+
+  // tables of the snapshot with the log applied, in creation order
+  // a snapshot without the magic number and no log on top of it (e.g. a catalog from before this format) -> empty catalog,
+  // the old file is kept aside as .invalid
+  public synchronized List<TableEntry> load() throws IOException {
+    if (!hasMagic(snapshotFile) && (!logFile.exists() || logFile.length() == 0)) {
+      File invalidFile = new File(snapshotFile.getPath() + ".invalid");
+      System.err.println("Warning: " + snapshotFile + " is not an Anton catalog, starting with an empty one (old file kept as " + invalidFile + ")");
+      Files.move(snapshotFile.toPath(), invalidFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      compact(List.of());
+      return new ArrayList<>();
+    }
+
+    Map<String, TableEntry> tables = new LinkedHashMap<>();
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(snapshotFile.toPath())))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not an Anton catalog file (bad magic number)");
+      }
+      int version = in.readInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException("Unsupported catalog file version: " + version);
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        TableEntry entry = readEntry(in);
+        tables.put(entry.getTableName(), entry);
+      }
+    } catch (EOFException e) {
+      throw new IOException("Corrupt catalog file (too short)");
+    }
+
+    this.logRecords = replayLog(tables);
+    return new ArrayList<>(tables.values());
+  }
+
+  public synchronized void logCreate(TableEntry entry) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(CREATE);
+    writeEntry(out, entry);
+    append(bytes.toByteArray());
+  }
+
+  public synchronized void logDrop(String tableName) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(DROP);
+    out.writeUTF(tableName);
+    append(bytes.toByteArray());
+  }
+
+  public synchronized boolean needsCompaction() {
+    return this.logRecords >= COMPACT_AFTER;
+  }
+
+  // the tables become the new snapshot (written aside, then moved over the old one) and the log starts over
+  public synchronized void compact(List<TableEntry> tables) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(tables.size());
+    for (TableEntry entry : tables) {
+      writeEntry(out, entry);
+    }
+
+    File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+    write(tmpFile, bytes.toByteArray(), false);
+    Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    write(logFile, new byte[0], false);
+    this.logRecords = 0;
+  }
+
+  private static boolean hasMagic(File file) throws IOException {
+    if (file.length() < 4) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      return in.readInt() == MAGIC;
+    }
+  }
+
+  // ========== Log ========== \\
+
+  private void append(byte[] payload) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+    record.putInt(payload.length);
+    record.putInt((int) crc.getValue());
+    record.put(payload);
+    write(logFile, record.array(), true);
+    this.logRecords++;
+  }
+
+  // applies every complete record, a torn record at the end (crash while appending) is ignored
+  private int replayLog(Map<String, TableEntry> tables) throws IOException {
+    if (!logFile.exists()) {
+      return 0;
+    }
+
+    byte[] bytes = Files.readAllBytes(logFile.toPath());
+    ByteBuffer log = ByteBuffer.wrap(bytes);
+    int records = 0;
+    int validEnd = 0;
+    while (log.remaining() >= 8) {
+      int length = log.getInt();
+      int checksum = log.getInt();
+      if (length < 0 || length > log.remaining()) {
+        break;
+      }
+      byte[] payload = new byte[length];
+      log.get(payload);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+      switch (in.readByte()) {
+        case CREATE -> {
+          TableEntry entry = readEntry(in);
+          tables.put(entry.getTableName(), entry);
+        }
+
+        case DROP -> tables.remove(in.readUTF());
+
+        default -> throw new IOException("Corrupt catalog log, unknown record kind");
+      }
+      records++;
+      validEnd = log.position();
+    }
+
+    if (validEnd < bytes.length) {
+      // cut the torn record off -> the next append must follow the last valid one
+      write(logFile, Arrays.copyOf(bytes, validEnd), false);
+    }
+    return records;
+  }
+
+  // ========== Encoding ========== \\
+
+  private static void writeEntry(DataOutputStream out, TableEntry entry) throws IOException {
+    out.writeUTF(entry.getTableName());
+    out.writeUTF(entry.getFileName());
+    out.writeBoolean(entry.getOptions().isMemoryMapped());
+    out.writeInt(entry.getOptions().getPageSize());
+    out.writeInt(entry.getColumns().size());
+    for (Column col : entry.getColumns()) {
+      out.writeUTF(col.getName());
+      out.writeByte(col.getType().ordinal());
+    }
+  }
+
+  private static TableEntry readEntry(DataInputStream in) throws IOException {
+    String tableName = in.readUTF();
+    String fileName = in.readUTF();
+    TableOptions options = new TableOptions(in.readBoolean(), in.readInt());
+    int numOfColumns = in.readInt();
+    List<Column> columns = new ArrayList<>(numOfColumns);
+    for (int i = 0; i < numOfColumns; i++) {
+      String name = in.readUTF();
+      int type = in.readByte();
+      if (type < 0 || type >= DataType.values().length) {
+        throw new IOException("Corrupt catalog, unknown column type: " + type);
+      }
+      columns.add(new Column(name, DataType.values()[type]));
+    }
+    return new TableEntry(tableName, fileName, columns, options);
+  }
+
+  // fsync -> the record is on disk when this returns
+  private static void write(File file, byte[] data, boolean append) throws IOException {
+    try (FileOutputStream fos = new FileOutputStream(file, append)) {
+      fos.write(data);
+      fos.flush();
+      fos.getFD().sync();
+    }
+  }
+}
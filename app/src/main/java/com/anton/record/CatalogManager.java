@@ -1,23 +1,25 @@
 package com.anton.record;
 
 import java.io.File;
-import java.io.FileDescriptor;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
 
 import com.anton.storage.RecordId;
 
 // Responsible for storing meta data for our database
-public class CatalogManager {
-  private final File catalogFile;
-  private Map<String, Table> tables = new HashMap<>();
+public class CatalogManager implements AutoCloseable {
+  private final CatalogFile catalogFile; // snapshot + DDL log
+  // lookups never lock, every table has its own read/write lock for the queries on it
+  private final Map<String, Table> tables = new ConcurrentHashMap<>();
+  private final Object ddlLock = new Object(); // create / drop and the catalog file
+  private final OpenTables openTables; // tables are opened on first use, idle ones closed past the limit
+  private final TableReclaimer reclaimer = new TableReclaimer(); // files of dropped tables
 
   // default file path
   public CatalogManager() throws IOException {
@@ -25,134 +27,202 @@ public class CatalogManager {
   }
 
   public CatalogManager(String catalogFilePath) throws IOException {
-    this.catalogFile = new File(catalogFilePath);
+    this(catalogFilePath, OpenTables.DEFAULT_MAX_OPEN);
+  }
+
+  // maxOpenTables -> tables with an open file at once (as long as they are idle)
+  public CatalogManager(String catalogFilePath, int maxOpenTables) throws IOException {
+    this.openTables = new OpenTables(maxOpenTables);
+    File file = new File(catalogFilePath);
     // Ensure parent directory exists
-    File parent = this.catalogFile.getParentFile();
+    File parent = file.getParentFile();
     if (parent != null && !parent.exists()) {
       parent.mkdirs();
     }
+    this.catalogFile = new CatalogFile(file);
     if (this.catalogFile.exists()) {
       loadCatalog();
     } else {
-      saveCatalog(); // create empty catalog file
+      compact(); // create empty catalog file
     }
   }
 
-  // synchronized -> only one thread can execute this function at a time, to avoid inconsistensies
-  public synchronized Table createTable(String tableName, List<Column> columns) throws IOException {
-    if (tables.containsKey(tableName)) {
-      throw new RuntimeException("Table already exists: " + tableName);
-    }
+  public Table createTable(String tableName, List<Column> columns) throws IOException {
+    return createTable(tableName, columns, TableOptions.defaults());
+  }
 
-    String fileName = "storage/" + tableName.toLowerCase() + ".tbl";
-    // create the table file
-    File tableFile = new File(fileName);
-    File parent = tableFile.getParentFile();
-    if (parent != null && !parent.exists()) {
-      parent.mkdirs();
-    }
-    tableFile.createNewFile();
+  // DDL -> serialized by the ddl lock, queries on other tables are never blocked by it
+  public Table createTable(String tableName, List<Column> columns, TableOptions options) throws IOException {
+    synchronized (this.ddlLock) {
+      if (tables.containsKey(tableName)) {
+        throw new RuntimeException("Table already exists: " + tableName);
+      }
 
-    Table schema = new Table(tableName.toLowerCase(), columns, fileName);
-    tables.put(tableName, schema);
-    saveCatalog();
+      String fileName = newFileName(tableName.toLowerCase());
+      // create the table file
+      File tableFile = new File(fileName);
+      File parent = tableFile.getParentFile();
+      if (parent != null && !parent.exists()) {
+        parent.mkdirs();
+      }
+      // a leftover file of a table that is not in the catalog must not leak its pages into the new table
+      if (tableFile.exists() && !tableFile.delete()) {
+        throw new IOException("Failed to remove stale table file: " + fileName);
+      }
+      tableFile.createNewFile();
 
-    return schema;
-  }
+      Table schema = new Table(tableName.toLowerCase(), columns, fileName, options);
+      // one small record appended to the log, not a rewrite of the catalog
+      // logged before it is published -> a table queries can see always survives a restart
+      this.catalogFile.logCreate(toEntry(schema));
+      tables.put(tableName, schema);
+      compactIfNeeded();
 
-  public synchronized void insertTuple(String tableName, Tuple tuple) throws IOException {
-    Table table = this.tables.get(tableName);
-    if (table == null) {
-      throw new IllegalArgumentException("Table does not exist: " + tableName);
+      return schema;
     }
-    RecordId id = table.insert(tuple);
-    tuple.setId(id);
-    saveCatalog();
   }
 
-  public synchronized List<Tuple> selectTuples(String tableName, Map<String, Object> condition, List<String> fields) throws IOException {
-    Table table = this.tables.get(tableName);
-    if (table == null) {
-      throw new IllegalArgumentException("Table does not exist: " + tableName);
+  public void insertTuple(String tableName, Tuple tuple) throws IOException {
+    Table table = lockTable(tableName, true);
+    try {
+      RecordId id = table.insert(tuple);
+      tuple.setId(id);
+    } finally {
+      table.getLock().writeLock().unlock();
     }
+  }
 
-    if (condition == null) {
-      return table.selectAll(fields);
+  // bulk load -> one pass over the pages for the whole batch
+  public void insertTuples(String tableName, List<Tuple> tuples) throws IOException {
+    Table table = lockTable(tableName, true);
+    try {
+      table.insertAll(tuples);
+    } finally {
+      table.getLock().writeLock().unlock();
     }
+  }
 
-    return table.select(condition, fields);
+  // readers of a table run concurrently with each other
+  public List<Tuple> selectTuples(String tableName, Map<String, Object> condition, List<String> fields) throws IOException {
+    Table table = lockTable(tableName, false);
+    try {
+      if (condition == null) {
+        return table.selectAll(fields);
+      }
+
+      return table.select(condition, fields);
+    } finally {
+      table.getLock().readLock().unlock();
+    }
   }
 
-  public synchronized Table getTableSchema(String tableName) {
+  public Table getTableSchema(String tableName) {
     return tables.get(tableName);
   }
 
-  public synchronized List<String> listTables() {
+  public List<String> listTables() {
     return new ArrayList<>(tables.keySet());
   }
 
-  public synchronized void deleteTuple(String tableName, Map<String, Object> condition) throws IOException {
-    Table table = this.tables.get(tableName);
-    if (table == null) {
-      throw new RuntimeException("Table does not exist");
+  public void deleteTuple(String tableName, Map<String, Object> condition) throws IOException {
+    Table table = lockTable(tableName, true);
+    try {
+      table.delete(condition);
+    } finally {
+      table.getLock().writeLock().unlock();
     }
+  }
+
+  // metadata only -> the table leaves the catalog and the call returns, its file is deleted in the background
+  // once the queries still running on it are done
+  public void dropTable(String tableName) throws IOException {
+    synchronized (this.ddlLock) {
+      Table table = this.tables.get(tableName);
+      if (table == null) {
+        throw new RuntimeException("Table does not exist");
+      }
 
-    table.delete(condition);
-    saveCatalog();
+      this.catalogFile.logDrop(table.getTableName());
+      this.tables.remove(tableName);
+      // queries waiting for its lock give up, new ones do not find it
+      table.markDropped();
+      this.openTables.remove(table);
+      this.reclaimer.reclaim(table);
+      compactIfNeeded();
+    }
   }
 
-  public synchronized void dropTable(String tableName) throws IOException {
-    Table table = this.tables.remove(tableName);
-    if (table == null) {
-      throw new RuntimeException("Table does not exist");
+  // storage/<name>.tbl, or storage/<name>~<n>.tbl while that file is still used (e.g. by a dropped table whose
+  // last queries are running) -> creating a table never waits for the reclaimer
+  private String newFileName(String name) {
+    Set<String> inUse = new HashSet<>();
+    for (Table table : this.tables.values()) {
+      inUse.add(table.getFileName());
     }
 
-    // Close all resources with proper error handling
-    IOException closeException = null;
-    try {
-      // Ensure all file handles are properly closed
-      table.close();
-    } catch (IOException e) {
-      closeException = e;
-      System.err.println("Error occurred while closing the table. E: " + e.getMessage());
-      e.printStackTrace();
+    String fileName = "storage/" + name + ".tbl";
+    for (int generation = 1; inUse.contains(fileName) || this.reclaimer.isPending(fileName); generation++) {
+      fileName = "storage/" + name + "~" + generation + ".tbl";
     }
+    return fileName;
+  }
 
-    // Garbage collection -> should not be used in production, but can't do much about it as of now
-    System.gc();
+  // waits until the files of the dropped tables are deleted
+  public void awaitReclaimed() {
+    this.reclaimer.awaitAll();
+  }
 
-    // Small delay to allow OS to release file handles
-    // This is more predictable than System.gc() -> should not be used in production
-    try {
-      Thread.sleep(100);
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-    }
-
-    // Attempt file deletion with retry logic
-    File file = new File(table.getFileName());
-    if (file.exists()) {
-      boolean deleted = deleteFileWithRetry(file);
-
-      if (!deleted) {
-        System.err.println("WARNING: Could not delete file: " + file.getAbsolutePath());
-        file.deleteOnExit();
-        System.err.println("Scheduled the deletion");
-      } else {
-        System.out.println("Successfully deleted file: " + file.getAbsolutePath());
+  // the table locked for reading or writing, the caller unlocks it
+  // a table dropped while waiting for the lock is reported as missing
+  private Table lockTable(String tableName, boolean write) {
+    Table table = this.tables.get(tableName);
+    if (table == null) {
+      throw new IllegalArgumentException("Table does not exist: " + tableName);
+    }
+
+    Lock lock = write ? table.getLock().writeLock() : table.getLock().readLock();
+    lock.lock();
+    if (table.isDropped()) {
+      lock.unlock();
+      throw new IllegalArgumentException("Table does not exist: " + tableName);
+    }
+    this.openTables.touch(table);
+    return table;
+  }
+
+  // checkpoint -> flush the dirty pages of every table
+  public void checkpoint() throws IOException {
+    for (Table table : this.tables.values()) {
+      table.getLock().readLock().lock();
+      try {
+        if (!table.isDropped()) {
+          table.flush();
+        }
+      } finally {
+        table.getLock().readLock().unlock();
       }
-    } else {
-      throw new RuntimeException("The table file does not exists.");
     }
+  }
 
-    // Save catalog after successful cleanup
-    try {
-      saveCatalog();
-    } catch (IOException e) {
-      if (closeException != null) {
-        e.addSuppressed(closeException);
+  // flushes and closes every table, the catalog can not be used after this
+  @Override
+  public void close() throws IOException {
+    awaitReclaimed();
+    IOException closeException = null;
+    for (Table table : this.tables.values()) {
+      // waits for the queries still running on the table
+      table.getLock().writeLock().lock();
+      try {
+        table.close();
+      } catch (IOException e) {
+        if (closeException == null) {
+          closeException = e;
+        } else {
+          closeException.addSuppressed(e);
+        }
+      } finally {
+        table.getLock().writeLock().unlock();
       }
-      throw e;
     }
 
     if (closeException != null) {
@@ -160,71 +230,34 @@ public class CatalogManager {
     }
   }
 
-  private boolean deleteFileWithRetry(File file) {
-    final int maxRetries = 5;
-    final long[] delays = { 50, 100, 200, 500, 1000 }; // Progressive backoff
-
-    for (int i = 0; i < maxRetries; i++) {
-      if (file.delete()) {
-        return true;
-      }
+  // ========== Persistance ========== \\
 
-      // Check why deletion failed
-      if (!file.exists()) {
-        return true; // File was deleted by another process
-      }
+  private static TableEntry toEntry(Table t) {
+    return new TableEntry(t.getTableName(), t.getFileName(), t.getColumns(), t.getOptions());
+  }
 
-      if (i < maxRetries - 1) {
-        try {
-          Thread.sleep(delays[i]);
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          return false;
-        }
-      }
+  // the log has grown long enough -> its records are folded into a new snapshot
+  private void compactIfNeeded() throws IOException {
+    if (this.catalogFile.needsCompaction()) {
+      compact();
     }
-
-    return false;
   }
 
-  // ========== Persistance ========== \\
-
-  // Convert runtime Tables -> serializable TableEntry list
-  private void saveCatalog() throws IOException {
+  // Convert runtime Tables -> TableEntry snapshot, the log starts over
+  private void compact() throws IOException {
     List<TableEntry> entries = new ArrayList<>();
     for (Table t : this.tables.values()) {
-      entries.add(new TableEntry(t.getTableName(), t.getFileName(), t.getColumns(), t.getTupleIds()));
-    }
-
-    try (
-      FileOutputStream fos = new FileOutputStream(this.catalogFile);
-      ObjectOutputStream oos = new ObjectOutputStream(fos);
-    ) {
-      oos.writeObject(entries);
-      oos.flush();
-      // fsync
-      FileDescriptor fd = fos.getFD();
-      fd.sync();
-    } catch (Exception e) {
-      throw new IOException("Failed to save catalog. E:" + e);
+      entries.add(toEntry(t));
     }
+    this.catalogFile.compact(entries);
   }
 
-  @SuppressWarnings("unchecked")
+  // no file is opened here -> startup does not depend on the number of tables
   private void loadCatalog() throws IOException {
-    List<TableEntry> entries;
-    try (
-      ObjectInputStream ois = new ObjectInputStream(new FileInputStream(this.catalogFile))
-    ) {
-      entries = (List<TableEntry>) ois.readObject();
-    } catch (Exception e) {
-      throw new IOException("Failed to load catalog. E:" + e);
-    }
-
     // Rebuild runtime tables from entries
     this.tables.clear();
-    for (TableEntry e : entries) {
-      Table table = new Table(e.getTableName(), e.getColumns(), e.getFileName(), e.getTupleIds());
+    for (TableEntry e : this.catalogFile.load()) {
+      Table table = new Table(e.getTableName(), e.getColumns(), e.getFileName(), e.getOptions());
       this.tables.put(table.getTableName(), table);
     }
   }
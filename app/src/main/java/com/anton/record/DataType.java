@@ -1,5 +1,31 @@
 package com.anton.record;
 
 public enum DataType {
-  INT, STRING
-}
\ No newline at end of file
+  INT, STRING;
+
+  // literal (e.g. the text of a condition) -> value of this type, Integer for INT, String for STRING
+  public Object parse(Object literal) {
+    return switch (this) {
+      case INT -> {
+        if (literal instanceof Integer n) {
+          yield n;
+        }
+        try {
+          yield Integer.parseInt(literal.toString());
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Not an INT: '" + literal + "'");
+        }
+      }
+
+      case STRING -> literal.toString();
+    };
+  }
+
+  // order of two (non null) values of this type -> numeric for INT, lexicographic for STRING
+  public int compare(Object a, Object b) {
+    return switch (this) {
+      case INT -> Integer.compare((Integer) a, (Integer) b);
+      case STRING -> ((String) a).compareTo((String) b);
+    };
+  }
+}
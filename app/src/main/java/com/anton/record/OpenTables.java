@@ -0,0 +1,61 @@
+package com.anton.record;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// tables with an open file, least recently used first -> bounds the file handles (and buffer pools) of the catalog
+// past the limit the idle tables are closed, a table is idle when nobody holds its lock (tryLock, never waits)
+// a table in use stays open, the limit may then be exceeded until it is released
+public class OpenTables {
+  public static final int DEFAULT_MAX_OPEN = 64;
+
+  private final int maxOpen;
+  private final LinkedHashMap<Table, Boolean> tables = new LinkedHashMap<>(16, 0.75f, true); // access order
+
+  public OpenTables(int maxOpen) {
+    if (maxOpen < 1) {
+      throw new IllegalArgumentException("maxOpen must be at least 1, got: " + maxOpen);
+    }
+    this.maxOpen = maxOpen;
+  }
+
+  // the caller is about to use the table (and holds its lock) -> most recently used, idle tables past the limit are closed
+  // the victims are only picked under the monitor (and stay write locked), closing them (flush + fsync) happens after
+  // -> other tables are not held up by the I/O
+  public void touch(Table table) {
+    List<Table> idle = new ArrayList<>();
+    synchronized (this) {
+      this.tables.put(table, Boolean.TRUE);
+      Iterator<Table> it = this.tables.keySet().iterator();
+      while (this.tables.size() > this.maxOpen && it.hasNext()) {
+        Table eldest = it.next();
+        if (eldest == table || !eldest.getLock().writeLock().tryLock()) {
+          continue;
+        }
+        it.remove();
+        idle.add(eldest);
+      }
+    }
+
+    for (Table eldest : idle) {
+      try {
+        eldest.close();
+      } catch (IOException e) {
+        System.err.println("Warning: Failed to close idle table " + eldest.getTableName() + ". E: " + e.getMessage());
+      } finally {
+        eldest.getLock().writeLock().unlock();
+      }
+    }
+  }
+
+  public synchronized void remove(Table table) {
+    this.tables.remove(table);
+  }
+
+  public synchronized int size() {
+    return this.tables.size();
+  }
+}
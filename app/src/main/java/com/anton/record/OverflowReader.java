@@ -0,0 +1,9 @@
+package com.anton.record;
+
+import java.io.IOException;
+
+// fetches the bytes of a value stored in overflow pages
+@FunctionalInterface
+public interface OverflowReader {
+  byte[] read(OverflowValue value) throws IOException;
+}
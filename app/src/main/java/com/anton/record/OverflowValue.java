@@ -0,0 +1,16 @@
+package com.anton.record;
+
+import com.anton.storage.RecordId;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+// pointer to a value stored in overflow pages, kept in the row in place of the value itself
+public class OverflowValue {
+  public static final int ENCODED_SIZE = 12; // page number + slot index + length
+
+  private final RecordId firstChunk;
+  private final int length; // bytes of the value
+}
@@ -0,0 +1,64 @@
+package com.anton.record;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import com.anton.storage.PageManager;
+import com.anton.storage.RecordFilter;
+
+// scan of the page range [fromPage, endPage) of a table, split in halves until the ranges are small
+// every partition filters and maps its own rows, the results are concatenated in page order
+// filter runs on the rows in the pages, recheck on the decoded rows that passed it
+// a partition is scanned through the ring of the worker running it -> the partitions do not each take frames of their own
+class PartitionedScan<R> extends RecursiveTask<List<R>> {
+  private static final long serialVersionUID = 1L; // RecursiveTask is Serializable, a scan is never serialized
+  static final int MIN_PARTITION_PAGES = 16; // smaller ranges are not worth a task of their own
+
+  private final Table table;
+  private final int fromPage;
+  private final int endPage;
+  private final RecordFilter filter;
+  private final Predicate<Tuple> recheck;
+  private final Function<Tuple, R> mapper;
+  private final Supplier<PageManager.ScanRing> ringOfWorker;
+
+  PartitionedScan(Table table, int fromPage, int endPage, RecordFilter filter, Predicate<Tuple> recheck, Function<Tuple, R> mapper,
+      Supplier<PageManager.ScanRing> ringOfWorker) {
+    this.table = table;
+    this.fromPage = fromPage;
+    this.endPage = endPage;
+    this.filter = filter;
+    this.recheck = recheck;
+    this.mapper = mapper;
+    this.ringOfWorker = ringOfWorker;
+  }
+
+  @Override
+  protected List<R> compute() {
+    if (endPage - fromPage <= MIN_PARTITION_PAGES) {
+      List<R> results = new ArrayList<>();
+      Iterator<Tuple> rows = table.scan(fromPage, endPage, filter, ringOfWorker.get());
+      while (rows.hasNext()) {
+        Tuple tuple = rows.next();
+        if (recheck.test(tuple)) {
+          results.add(mapper.apply(tuple));
+        }
+      }
+      return results;
+    }
+
+    int mid = fromPage + (endPage - fromPage) / 2;
+    PartitionedScan<R> left = new PartitionedScan<>(table, fromPage, mid, filter, recheck, mapper, ringOfWorker);
+    PartitionedScan<R> right = new PartitionedScan<>(table, mid, endPage, filter, recheck, mapper, ringOfWorker);
+    left.fork();
+    List<R> results = right.compute();
+    List<R> merged = left.join();
+    merged.addAll(results);
+    return merged;
+  }
+}
@@ -0,0 +1,125 @@
+package com.anton.record;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.anton.storage.RecordFilter;
+
+// equality conditions compiled against the schema -> evaluated on the serialized row while it is still in its page
+// every condition jumps straight to its column, the rest of the row is never read
+// the condition literals are parsed once into the type of their column and compared as such (NULL never matches):
+// INT -> as ints ("07" = 7), STRING -> as UTF-8 bytes, no String is built for the row
+// a value stored in overflow pages can only be told apart by its length here, rows with such values are re-checked once decoded
+public class RecordPredicate implements RecordFilter {
+  private final TupleCodec codec;
+  private final int[] ordinals; // columns with a condition
+  private final Object[] expected; // per condition: the literal as a value of the column type
+  private final byte[][] expectedBytes; // per STRING condition: UTF-8 bytes of the literal
+  private final boolean matchesNothing;
+
+  private RecordPredicate(TupleCodec codec, int[] ordinals, Object[] expected, boolean matchesNothing) {
+    this.codec = codec;
+    this.ordinals = ordinals;
+    this.expected = expected;
+    this.expectedBytes = new byte[expected.length][];
+    for (int i = 0; i < expected.length; i++) {
+      if (expected[i] instanceof String s) {
+        this.expectedBytes[i] = s.getBytes(StandardCharsets.UTF_8);
+      }
+    }
+    this.matchesNothing = matchesNothing;
+  }
+
+  public static RecordPredicate compile(TupleCodec codec, Map<String, Object> conditions) {
+    int[] ordinals = new int[conditions.size()];
+    Object[] expected = new Object[conditions.size()];
+
+    int i = 0;
+    for (String field : conditions.keySet()) {
+      int ordinal = codec.getLayout().ordinalOf(field);
+      if (ordinal == -1) {
+        return nothing(codec); // no such column -> no row has a value for it
+      }
+
+      ordinals[i] = ordinal;
+      try {
+        expected[i] = codec.getType(ordinal).parse(conditions.get(field));
+      } catch (IllegalArgumentException e) {
+        return nothing(codec); // e.g. "seven" for an INT column -> equal to no value of the column
+      }
+      i++;
+    }
+
+    return new RecordPredicate(codec, ordinals, expected, false);
+  }
+
+  private static RecordPredicate nothing(TupleCodec codec) {
+    return new RecordPredicate(codec, new int[0], new Object[0], true);
+  }
+
+  // same conditions on a decoded row (e.g. one with values in overflow pages)
+  public boolean test(Tuple tuple) {
+    if (matchesNothing) {
+      return false;
+    }
+
+    for (int i = 0; i < ordinals.length; i++) {
+      Object value = tuple.getValue(ordinals[i]);
+      if (value == null || codec.getType(ordinals[i]).compare(value, expected[i]) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean test(ByteBuffer page, int offset, int length) {
+    if (matchesNothing) {
+      return false;
+    }
+
+    for (int i = 0; i < ordinals.length; i++) {
+      int ordinal = ordinals[i];
+      if (codec.isNull(page, offset, ordinal)) {
+        return false;
+      }
+
+      switch (codec.getType(ordinal)) {
+        case INT -> {
+          if (Integer.compare(codec.getInt(page, offset, ordinal), (Integer) expected[i]) != 0) {
+            return false;
+          }
+        }
+
+        case STRING -> {
+          byte[] bytes = expectedBytes[i];
+          if (codec.isOverflow(page, offset, ordinal)) {
+            if (codec.getOverflowLength(page, offset, ordinal) != bytes.length) {
+              return false;
+            }
+            continue;
+          }
+
+          int start = offset + codec.getVarStart(page, offset, ordinal);
+          if (compareBytes(page, start, codec.getVarLength(page, offset, ordinal), bytes) != 0) {
+            return false;
+          }
+        }
+
+        default -> throw new IllegalArgumentException("Unknown column type: " + codec.getType(ordinal));
+      }
+    }
+    return true;
+  }
+
+  // unsigned lexicographic order of page[start, start + length) and bytes -> the order of the code points for UTF-8
+  private static int compareBytes(ByteBuffer page, int start, int length, byte[] bytes) {
+    int common = Math.min(length, bytes.length);
+    int mismatch = page.slice(start, common).mismatch(ByteBuffer.wrap(bytes, 0, common));
+    if (mismatch == -1) {
+      return Integer.compare(length, bytes.length);
+    }
+    return Byte.compareUnsigned(page.get(start + mismatch), bytes[mismatch]);
+  }
+}
@@ -1,167 +1,312 @@
 package com.anton.record;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import com.anton.storage.FileManager;
 import com.anton.storage.PageManager;
+import com.anton.storage.Record;
+import com.anton.storage.RecordCursor;
+import com.anton.storage.RecordFilter;
 import com.anton.storage.RecordId;
 import com.anton.storage.RecordManager;
 
 import lombok.Getter;
-import lombok.Setter;
 
 @Getter
-@Setter
+// the rows are not listed anywhere else -> the live slots of the heap pages are the row directory
 public class Table {
+  // strings shorter than this always stay in their row
+  private static final int MIN_OVERFLOW_VALUE_SIZE = 64;
+
   private final String tableName;
-  private List<Column> columns;
+  private final List<Column> columns;
+  private final TupleCodec codec; // built once for the schema, encodes and decodes every row
   private final String fileName; // reference to the file storing this table's data
-  private RecordManager recordManager;
-  private List<RecordId> tupleIds;
+  private final TableOptions options;
+  private volatile RecordManager recordManager; // null until the file is first used, and again once closed
+  // held for reading by queries, for writing by inserts, deletes and the reclaimer of a dropped table
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // set by DROP TABLE without the lock (it never waits for queries), checked by queries once they hold it
+  // -> the ones already running finish, the ones still waiting give up
+  private volatile boolean dropped = false;
 
   public Table(String tableName, List<Column> columns, String fileName) {
+    this(tableName, columns, fileName, TableOptions.defaults());
+  }
+
+  public Table(String tableName, List<Column> columns, String fileName, TableOptions options) {
     this.tableName = tableName;
     this.columns = columns;
+    this.codec = new TupleCodec(columns);
     this.fileName = fileName;
-    this.tupleIds = new ArrayList<>();
+    this.options = options;
+  }
 
-    try {
-      this.recordManager = new RecordManager(new PageManager(new FileManager(fileName)));
-    } catch (Exception e) {
-      throw new RuntimeException("Failed to initialize table. E:" + e);
+  // the file is opened on first use -> a table costs no file handle (nor buffer pool) until it is queried
+  public RecordManager getRecordManager() {
+    RecordManager recordManager = this.recordManager;
+    if (recordManager != null) {
+      return recordManager;
+    }
+
+    synchronized (this) {
+      if (this.recordManager == null) {
+        if (this.dropped) {
+          // opening would bring the file back after the reclaimer deleted it
+          throw new IllegalStateException("Table has been dropped: " + this.tableName);
+        }
+        try {
+          FileManager fileManager = new FileManager(fileName, options.isMemoryMapped());
+          PageManager pageManager = new PageManager(fileManager, PageManager.DEFAULT_POOL_SIZE, PageManager.DEFAULT_FLUSH_INTERVAL_MS, options.getPageSize());
+          this.recordManager = new RecordManager(pageManager);
+        } catch (Exception e) {
+          throw new RuntimeException("Failed to initialize table " + this.tableName, e);
+        }
+      }
+      return this.recordManager;
     }
   }
 
-  public Table(String tableName, List<Column> columns, String fileName, List<RecordId> tupleIds) {
-    this.tableName = tableName;
-    this.columns = columns;
-    this.fileName = fileName;
-    this.tupleIds = tupleIds;
+  // one way -> a dropped table never comes back, and only the catalog drops it
+  void markDropped() {
+    this.dropped = true;
+  }
 
-    try {
-      FileManager fileManager = new FileManager(fileName);
-      PageManager pageManager = new PageManager(fileManager);
-      this.recordManager = new RecordManager(pageManager);
-    } catch (Exception e) {
-      throw new RuntimeException("Failed to initialize table. E:" + e);
-    }
+  public boolean isOpen() {
+    return this.recordManager != null;
   }
 
   public RecordId insert(byte[] data) throws IOException {
-    RecordId id = this.recordManager.insertRecord(data);
-    this.tupleIds.add(id);
-    return id;
+    return getRecordManager().insertRecord(data);
   }
 
   public RecordId insert(Tuple tuple) throws IOException {
+    return insertAll(List.of(tuple)).get(0);
+  }
+
+  // bulk load -> the rows are packed into pages in one pass, the ids are also set on the tuples
+  public List<RecordId> insertAll(List<Tuple> tuples) throws IOException {
     // serialize the data
-    byte[] data = tuple.toBytes(this.columns);
-    // store the serialized data
-    RecordId id = this.recordManager.insertRecord(data);
-    this.tupleIds.add(id);
-    return id;
+    List<byte[]> records = new ArrayList<>(tuples.size());
+    List<List<OverflowValue>> overflowValues = new ArrayList<>(tuples.size()); // by row
+    List<RecordId> ids = new ArrayList<>(tuples.size());
+    try {
+      for (Tuple tuple : tuples) {
+        int size = this.codec.encodedSize(tuple);
+        List<OverflowValue> rowOverflow = new ArrayList<>();
+        overflowValues.add(rowOverflow);
+        if (size > getOverflowThreshold()) {
+          // wide row -> its largest values go to overflow pages so that the row stays small
+          records.add(this.codec.encode(tuple, moveToOverflow(tuple, size, rowOverflow)));
+        } else {
+          records.add(this.codec.encode(tuple));
+        }
+      }
+
+      // store the serialized data
+      getRecordManager().insertRecords(records, ids);
+    } catch (IOException | RuntimeException e) {
+      // the rows stored before the failure keep their chains, nothing points to the chains of the others anymore
+      try {
+        for (List<OverflowValue> rowOverflow : overflowValues.subList(ids.size(), overflowValues.size())) {
+          deleteOverflow(rowOverflow);
+        }
+      } catch (IOException cleanup) {
+        e.addSuppressed(cleanup);
+      }
+      throw e;
+    }
+
+    for (int i = 0; i < ids.size(); i++) {
+      tuples.get(i).setId(ids.get(i));
+    }
+    return ids;
+  }
+
+  // ids of the live rows in physical order, read from the slot directories of the heap pages (nothing is decoded)
+  public List<RecordId> getTupleIds() {
+    List<RecordId> ids = new ArrayList<>();
+    RecordCursor cursor = getRecordManager().scan();
+    while (cursor.hasNext()) {
+      ids.add(cursor.next().getId());
+    }
+    return ids;
   }
 
   public Tuple read(RecordId id) throws IOException {
-    byte[] data = this.recordManager.readRecord(id);
-    // return the de-serialized data
-    Tuple tuple = Tuple.fromBytes(data, this.columns);
-    tuple.setId(id);
-    return tuple;
+    byte[] data = getRecordManager().readRecord(id);
+    return toTuple(id, data);
   }
 
-  private boolean delete(RecordId id) throws IOException {
-    try {
-      this.recordManager.deleteRecord(id);
-      System.out.println("Successfully deleted the record with page number: " + id.getPageNumber() + " and slot index: " + id.getSlotIndex());
-      this.tupleIds.remove(id);
-      return true;
-    } catch (Exception e) {
-      System.out.println("Failed to delete the record with page number: " + id.getPageNumber() + " and slot index: " + id.getSlotIndex());
-      e.printStackTrace();
-      return false;
-    }
+  // every row of the table in physical order, decoded one at a time
+  public Iterator<Tuple> scan() {
+    return toTuples(getRecordManager().scan());
   }
 
-  public void delete(Map<String, Object> conditions) throws IOException {
-    System.out.println("Before deletion, tupleIds size: " + this.tupleIds.size());
-    List<Tuple> allTuples = this.selectAll(null);
-    List<RecordId> idsToDelete = matchConditions(allTuples, conditions, "id");
-    
-    for (RecordId id : idsToDelete) {
-      this.delete(id);
-    }
+  // rows of the pages in [fromPage, endPage) passing the filter, the others are never decoded
+  public Iterator<Tuple> scan(int fromPage, int endPage, RecordFilter filter) {
+    return toTuples(getRecordManager().scan(fromPage, endPage, filter));
   }
 
-  public List<Tuple> selectAll(List<String> fields) throws IOException {
-    if (this.tupleIds == null) {
-      throw new RuntimeException("No tuples found in table: " + this.tableName);
-    }
+  // same, through the ring of the worker scanning the range
+  Iterator<Tuple> scan(int fromPage, int endPage, RecordFilter filter, PageManager.ScanRing ring) {
+    return toTuples(getRecordManager().scan(fromPage, endPage, filter, ring));
+  }
 
-    List<Tuple> tuples = new ArrayList<>();
-    for (RecordId id : this.tupleIds) {
-      tuples.add(read(id));
-    }
+  private Iterator<Tuple> toTuples(RecordCursor cursor) {
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return cursor.hasNext();
+      }
 
-    return projectRequiredFields(tuples, fields);
+      @Override
+      public Tuple next() {
+        Record record = cursor.next();
+        return toTuple(record.getId(), record.getData());
+      }
+    };
   }
 
-  public List<Tuple> select(Map<String, Object> conditions, List<String> fields) throws IOException {
-    List<Tuple> allTuples = this.selectAll(null);
-    List<Tuple> tuples = matchConditions(allTuples, conditions, "tuple");
-
-    return projectRequiredFields(tuples, fields);
-  }
-
-  private <T> List<T> matchConditions(List<Tuple> items, Map<String, Object> conditions, String get) throws IOException {
-    List<T> matched = new ArrayList<>();
-    for (Tuple item : items) {
-      boolean match = true;
-      for (String field : conditions.keySet()) {
-        Object tupleValue = item.getValue(field);
-        Object conditionValue = conditions.get(field);
-        if (tupleValue == null || !tupleValue.toString().equals(conditionValue.toString())) {
-          match = false;
-          break;
+  private Tuple toTuple(RecordId id, byte[] data) {
+    // return the de-serialized data, values in overflow pages are only read when accessed
+    return this.codec.decode(data, id, v -> getRecordManager().readOverflow(v.getFirstChunk(), v.getLength()));
+  }
+
+  // rows above this size move values to overflow pages -> several rows still fit in a page
+  private int getOverflowThreshold() {
+    return getRecordManager().getMaxRecordSize() / 4;
+  }
+
+  // stores the largest STRING values in overflow pages until the row is under the threshold
+  // returns the pointers by column ordinal, every chain is also added to written as soon as it is stored
+  private OverflowValue[] moveToOverflow(Tuple tuple, int rowSize, List<OverflowValue> written) throws IOException {
+    byte[][] candidates = new byte[this.columns.size()][];
+    List<Integer> largestFirst = new ArrayList<>();
+    for (int i = 0; i < this.columns.size(); i++) {
+      Column col = this.columns.get(i);
+      if (col.getType() == DataType.STRING && tuple.getValue(col.getName()) != null) {
+        byte[] value = ((String) tuple.getValue(col.getName())).getBytes(StandardCharsets.UTF_8);
+        if (value.length >= MIN_OVERFLOW_VALUE_SIZE) {
+          candidates[i] = value;
+          largestFirst.add(i);
         }
       }
-      
-      if (match) {
-        if ("id".equals(get)) {
-          @SuppressWarnings("unchecked")
-          T id = (T) item.getId();
-          matched.add(id);
-        } else if ("tuple".equals(get)) {
-          @SuppressWarnings("unchecked")
-          T tuple = (T) item;
-          matched.add(tuple);
-        }
+    }
+    largestFirst.sort((a, b) -> Integer.compare(candidates[b].length, candidates[a].length));
+
+    OverflowValue[] overflow = new OverflowValue[this.columns.size()];
+    for (int col : largestFirst) {
+      if (rowSize <= getOverflowThreshold()) {
+        break;
       }
+      byte[] value = candidates[col];
+      overflow[col] = new OverflowValue(getRecordManager().insertOverflow(value), value.length);
+      written.add(overflow[col]);
+      // the bytes in the row are replaced by the pointer
+      rowSize -= value.length - OverflowValue.ENCODED_SIZE;
     }
-    return matched;
+    return overflow;
   }
 
-  private List<Tuple> projectRequiredFields(List<Tuple> tuples, List<String> fields) {
-    if (fields == null) return tuples;
+  private void deleteOverflow(Iterable<OverflowValue> values) throws IOException {
+    for (OverflowValue value : values) {
+      getRecordManager().deleteOverflow(value.getFirstChunk());
+    }
+  }
+
+  public void delete(Map<String, Object> conditions) throws IOException {
+    List<Tuple> tuplesToDelete = parallelScan(conditions, t -> t);
+    List<RecordId> idsToDelete = new ArrayList<>();
+    List<OverflowValue> overflowToDelete = new ArrayList<>();
+    for (Tuple tuple : tuplesToDelete) {
+      idsToDelete.add(tuple.getId());
+      overflowToDelete.addAll(tuple.getOverflowValues());
+    }
+
+    // one pass per page instead of one page access (and compaction) per row
+    getRecordManager().deleteRecords(idsToDelete);
+    // rows first -> a failure in between leaves unreachable chains, never a row pointing to freed pages
+    deleteOverflow(overflowToDelete);
+    System.out.println("Successfully deleted " + idsToDelete.size() + " record(s)");
+  }
+
+  public List<Tuple> selectAll(List<String> fields) throws IOException {
+    return parallelScan(Map.of(), projection(fields));
+  }
+
+  public List<Tuple> select(Map<String, Object> conditions, List<String> fields) throws IOException {
+    return parallelScan(conditions, projection(fields));
+  }
+
+  // the pages are split in ranges scanned in parallel on the common ForkJoinPool, each one filtering and mapping its own rows
+  // the conditions are evaluated on the rows in the pages, only matching rows are decoded
+  // results come back in page order, same as a sequential scan
+  private <R> List<R> parallelScan(Map<String, Object> conditions, Function<Tuple, R> mapper) {
+    // the literals are parsed into the column types once here, not per row
+    RecordPredicate predicate = RecordPredicate.compile(this.codec, conditions);
+    RecordFilter filter = conditions.isEmpty() ? RecordFilter.ALL : predicate;
+    // values in overflow pages are only compared by length in the page -> those rows are checked again once decoded
+    Predicate<Tuple> recheck = t -> t.getOverflowValues().isEmpty() || predicate.test(t);
+    int endPage = getRecordManager().getNumOfPages();
+    // one scan ring per worker (the pool threads and the caller) -> the whole scan takes no more frames than a sequential one
+    int workers = ForkJoinPool.commonPool().getParallelism() + 1;
+    Map<Thread, PageManager.ScanRing> rings = new ConcurrentHashMap<>();
+    Supplier<PageManager.ScanRing> ringOfWorker = () -> rings.computeIfAbsent(Thread.currentThread(), t -> getRecordManager().newScanRing(workers));
+    return ForkJoinPool.commonPool().invoke(new PartitionedScan<>(this, PageManager.HEADER_PAGE + 1, endPage, filter, recheck, mapper, ringOfWorker));
+  }
+
+  // the field names are resolved to ordinals once, every row is then projected by ordinal
+  // the mapper runs inside the scan -> rows leave with their values read, while the caller still holds the table lock
+  // (a lazy row would read its overflow pages after the lock is gone, maybe after they were freed and reused)
+  private Function<Tuple, Tuple> projection(List<String> fields) {
+    if (fields == null) return Tuple::decoded;
 
     // project only the required fields
-    List<Tuple> projected = new ArrayList<>();
-    for (Tuple t : tuples) {
-      Map<String, Object> filteredValues = new HashMap<>();
-      for (String f : fields) {
-        filteredValues.put(f, t.getValue(f));
-      }
-      projected.add(new Tuple(filteredValues));
+    List<String> distinctFields = fields.stream().distinct().toList();
+    TupleLayout projected = new TupleLayout(distinctFields);
+    int[] ordinals = new int[distinctFields.size()];
+    for (int i = 0; i < ordinals.length; i++) {
+      ordinals[i] = this.codec.getLayout().ordinalOf(distinctFields.get(i));
     }
 
-    return projected;
+    return t -> {
+      Object[] values = new Object[ordinals.length];
+      for (int i = 0; i < ordinals.length; i++) {
+        values[i] = ordinals[i] == -1 ? null : t.getValue(ordinals[i]);
+      }
+      return new Tuple(projected, values, null);
+    };
+  }
+
+  // writes every dirty page of this table back to its file
+  public void flush() throws IOException {
+    RecordManager recordManager = this.recordManager;
+    if (recordManager != null) {
+      recordManager.flush();
+    }
   }
 
-  public void close() throws IOException {
-    this.recordManager.close();
+  // flushes and closes the file, the next use opens it again
+  public synchronized void close() throws IOException {
+    if (this.recordManager != null) {
+      try {
+        this.recordManager.close();
+      } finally {
+        this.recordManager = null;
+      }
+    }
   }
 }
@@ -1,19 +1,17 @@
 package com.anton.record;
 
-import java.io.Serializable;
 import java.util.List;
 
-import com.anton.storage.RecordId;
-
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
 @AllArgsConstructor
 @Getter
-// To Serialize table data and persist in the disk
-public class TableEntry implements Serializable {
+// what the catalog file keeps about a table (see CatalogFile)
+// schema only -> it changes on DDL, the rows are found in the table file itself
+public class TableEntry {
   private final String tableName;
   private final String fileName;
   private final List<Column> columns;
-  private final List<RecordId> tupleIds;
+  private final TableOptions options;
 }
@@ -0,0 +1,66 @@
+package com.anton.record;
+
+import java.util.Map;
+
+import com.anton.storage.Page;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+// storage options of a table, chosen at CREATE TABLE time and kept in the catalog
+public class TableOptions {
+  private final boolean memoryMapped; // read mostly tables -> the file is memory mapped instead of read page by page
+  private final int pageSize; // bytes, 4/8/16/32/64KB -> bigger pages for wide rows and scan heavy tables
+
+  public static TableOptions defaults() {
+    return new TableOptions(false, Page.DEFAULT_PAGE_SIZE);
+  }
+
+  // options from the WITH clause of CREATE TABLE
+  public static TableOptions fromMap(Map<String, String> options) {
+    boolean memoryMapped = false;
+    int pageSize = Page.DEFAULT_PAGE_SIZE;
+    for (String option : options.keySet()) {
+      String value = options.get(option);
+      switch (option) {
+        case "mmap" -> memoryMapped = parseBoolean(option, value);
+        case "page_size" -> pageSize = parsePageSize(value);
+        default -> throw new IllegalArgumentException("Unknown table option: " + option);
+      }
+    }
+    return new TableOptions(memoryMapped, pageSize);
+  }
+
+  private static boolean parseBoolean(String option, String value) {
+    if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+      throw new IllegalArgumentException("'" + option + "' expects true or false, got: " + value);
+    }
+    return Boolean.parseBoolean(value);
+  }
+
+  // bytes (8192) or kilobytes (8K, 8KB)
+  private static int parsePageSize(String value) {
+    String v = value.toUpperCase();
+    int multiplier = 1;
+    if (v.endsWith("KB")) {
+      v = v.substring(0, v.length() - 2);
+      multiplier = 1024;
+    } else if (v.endsWith("K")) {
+      v = v.substring(0, v.length() - 1);
+      multiplier = 1024;
+    }
+
+    int pageSize;
+    try {
+      pageSize = Integer.parseInt(v.trim()) * multiplier;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid page_size: " + value);
+    }
+    if (!Page.isValidPageSize(pageSize)) {
+      throw new IllegalArgumentException("page_size must be 4, 8, 16, 32 or 64KB, got: " + value);
+    }
+    return pageSize;
+  }
+}
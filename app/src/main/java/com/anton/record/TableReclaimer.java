@@ -0,0 +1,82 @@
+package com.anton.record;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// gives back the files of dropped tables in the background -> DROP TABLE only changes the catalog and returns
+// a table is reclaimed once the queries still running on it are done (its write lock is free), then closed and its file deleted
+// a file that can not be deleted yet (e.g. the OS still holds it) is retried with a growing delay, never by blocking a query
+public class TableReclaimer {
+  private static final long LOCK_RETRY_MS = 10;
+  private static final long[] DELETE_RETRY_MS = { 50, 100, 200, 500, 1000 }; // progressive backoff
+
+  // one daemon thread for every catalog, reclaiming is rare and short
+  private static final ScheduledExecutorService RECLAIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "anton-table-reclaimer");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>(); // file name -> done once it is gone
+
+  // the table must already be out of the catalog and marked dropped -> no new query can reach it
+  public void reclaim(Table table) {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    this.pending.put(table.getFileName(), done);
+    done.whenComplete((v, e) -> this.pending.remove(table.getFileName(), done));
+    RECLAIMER.execute(() -> closeWhenIdle(table, done));
+  }
+
+  // true until the file of a dropped table is gone -> a new table must not reuse the name yet
+  public boolean isPending(String fileName) {
+    return this.pending.containsKey(fileName);
+  }
+
+  public void awaitAll() {
+    for (CompletableFuture<Void> done : new ArrayList<>(this.pending.values())) {
+      done.join();
+    }
+  }
+
+  // tryLock -> the reclaimer thread never waits on a long scan, it comes back later instead
+  private void closeWhenIdle(Table table, CompletableFuture<Void> done) {
+    if (!table.getLock().writeLock().tryLock()) {
+      RECLAIMER.schedule(() -> closeWhenIdle(table, done), LOCK_RETRY_MS, TimeUnit.MILLISECONDS);
+      return;
+    }
+
+    try {
+      table.close();
+    } catch (IOException e) {
+      System.err.println("Error occurred while closing the dropped table " + table.getTableName() + ". E: " + e.getMessage());
+    } finally {
+      table.getLock().writeLock().unlock();
+    }
+    delete(new File(table.getFileName()), 0, done);
+  }
+
+  private void delete(File file, int attempt, CompletableFuture<Void> done) {
+    if (file.delete() || !file.exists()) {
+      System.out.println("Successfully deleted file: " + file.getAbsolutePath());
+      done.complete(null);
+      return;
+    }
+
+    if (attempt < DELETE_RETRY_MS.length) {
+      RECLAIMER.schedule(() -> delete(file, attempt + 1, done), DELETE_RETRY_MS[attempt], TimeUnit.MILLISECONDS);
+      return;
+    }
+
+    System.err.println("WARNING: Could not delete file: " + file.getAbsolutePath());
+    file.deleteOnExit();
+    System.err.println("Scheduled the deletion");
+    done.complete(null);
+  }
+}
@@ -1,27 +1,45 @@
 package com.anton.record;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.anton.storage.RecordId;
 
+// one row -> values by column ordinal, the names live in the layout shared by all the rows of a table
+// a row read from a table is a lazy view over its bytes -> a column is decoded the first time it is read
 public class Tuple {
+  private static final Object NOT_DECODED = new Object();
+
   private RecordId id;
-  private final Map<String, Object> values;
+  private final TupleLayout layout;
+  private final Object[] values;
+  private final TupleCodec codec; // null -> every value is already in values
+  private final ByteBuffer row;
+  // values stored in overflow pages are read on first access only
+  private final OverflowReader overflowReader;
+  private List<OverflowValue> overflowValues;
 
   public Tuple(Map<String, Object> values) {
     if (values == null) {
       throw new RuntimeException("Can not create a tuple with 'null' values");
     }
 
-    this.values = values;
+    this.layout = new TupleLayout(new ArrayList<>(values.keySet()));
+    this.values = new Object[this.layout.size()];
+    for (int i = 0; i < this.values.length; i++) {
+      this.values[i] = values.get(this.layout.getName(i));
+    }
+    this.codec = null;
+    this.row = null;
+    this.overflowReader = null;
+    this.overflowValues = List.of();
   }
 
   public Tuple(Map<String, Object> values, RecordId id) {
@@ -33,8 +51,56 @@ public class Tuple {
     this.id = id;
   }
 
+  // values already decoded (e.g. a projection)
+  Tuple(TupleLayout layout, Object[] values, RecordId id) {
+    this.layout = layout;
+    this.values = values;
+    this.id = id;
+    this.codec = null;
+    this.row = null;
+    this.overflowReader = null;
+    this.overflowValues = List.of();
+  }
+
+  // lazy view over a serialized row
+  Tuple(TupleCodec codec, byte[] data, RecordId id, OverflowReader overflowReader) {
+    this.layout = codec.getLayout();
+    this.values = new Object[this.layout.size()];
+    Arrays.fill(this.values, NOT_DECODED);
+    this.id = id;
+    this.codec = codec;
+    this.row = ByteBuffer.wrap(data);
+    this.overflowReader = overflowReader;
+  }
+
+  public TupleLayout getLayout() {
+    return this.layout;
+  }
+
+  // column name -> value, in column order
   public Map<String, Object> getValues() {
-    return this.values;
+    Map<String, Object> values = new LinkedHashMap<>();
+    for (int i = 0; i < this.values.length; i++) {
+      values.put(this.layout.getName(i), getValue(i));
+    }
+    return values;
+  }
+
+  // every value read now (overflow values included) -> the copy no longer needs the table, its file or its lock
+  Tuple decoded() {
+    Object[] decoded = new Object[this.values.length];
+    for (int i = 0; i < decoded.length; i++) {
+      decoded[i] = getValue(i);
+    }
+    return new Tuple(this.layout, decoded, this.id);
+  }
+
+  // values of this tuple stored in overflow pages (deleted together with the row)
+  public List<OverflowValue> getOverflowValues() {
+    if (this.overflowValues == null) {
+      this.overflowValues = this.codec.overflowValuesOf(this.row);
+    }
+    return this.overflowValues;
   }
 
   public RecordId getId() {
@@ -46,71 +112,34 @@ public class Tuple {
   }
 
   public Object getValue(String col) {
-    return this.values.get(col);
+    int ordinal = this.layout.ordinalOf(col);
+    return ordinal == -1 ? null : getValue(ordinal);
   }
 
-  // validate the data according to the schema return its byte form
-  public byte[] toBytes(List<Column> schema) {
-    try (
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      DataOutputStream dos = new DataOutputStream(baos);
-    ) {
-      for (Column col : schema) {
-        var val = this.values.get(col.getName());
-        if (val == null) {
-          throw new RuntimeException("'" + col.getName() + "' field is required.");
-        }
-        
-        switch (col.getType()) {
-          case INT -> dos.writeInt(Integer.parseInt(val.toString()));
-
-          case STRING -> {
-            byte[] strBytes = ((String) val).getBytes(StandardCharsets.UTF_8);
-            dos.writeInt(strBytes.length); // stores length first
-            dos.write(strBytes); // store the data
-          }
-
-          // Add more data types (if needed)
-
-          default -> throw new IllegalArgumentException("Unknown column type: " + col.getType());
-        }
+  public Object getValue(int ordinal) {
+    Object value = this.values[ordinal];
+    if (value == NOT_DECODED) {
+      value = this.codec.decodeValue(this.row, ordinal);
+      this.values[ordinal] = value;
+    }
+    if (value instanceof OverflowValue overflow) {
+      try {
+        value = new String(this.overflowReader.read(overflow), StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to read overflow value of '" + this.layout.getName(ordinal) + "'", e);
       }
-      
-      return baos.toByteArray();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+      this.values[ordinal] = value;
     }
+    return value;
   }
 
-  public static Tuple fromBytes(byte[] data, List<Column> schema) {
-    Map<String, Object> vals = new HashMap<>();
-
-    try (
-      ByteArrayInputStream bais = new ByteArrayInputStream(data);
-      DataInputStream dis = new DataInputStream(bais);
-    ) {
-      for (Column col : schema) {
-        // Object val = vals.get(col.getName());
-        switch (col.getType()) {
-          case INT -> {
-            int val = dis.readInt();
-            vals.put(col.getName(), val);
-          }
-
-          case STRING -> {
-            int length = dis.readInt();
-            byte[] strBytes = new byte[length];
-            dis.readFully(strBytes);
-            vals.put(col.getName(), new String(strBytes, StandardCharsets.UTF_8));
-          }
-        
-          default -> throw new IllegalArgumentException("Unknown column type: " + col.getType());
-        }
-      }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+  // validate the data according to the schema return its byte form
+  // builds a codec for the schema on every call -> tables keep their own codec
+  public byte[] toBytes(List<Column> schema) {
+    return new TupleCodec(schema).encode(this);
+  }
 
-    return new Tuple(vals);
+  public static Tuple fromBytes(byte[] data, List<Column> schema) {
+    return new TupleCodec(schema).decode(data, null, null);
   }
 }
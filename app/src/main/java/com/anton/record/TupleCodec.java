@@ -0,0 +1,240 @@
+package com.anton.record;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.anton.storage.RecordId;
+
+// serializes rows of one schema, built once per table
+// row format -> any column is found without decoding the ones before it:
+// | null bitmap | overflow bitmap | fixed width columns | var offset table | var width data |
+// bitmaps       -> one bit per column (schema order), overflow -> the value is a pointer to overflow pages
+// fixed columns -> INT (4 bytes) in schema order, a NULL one keeps its (zeroed) bytes so every fixed column has a constant offset
+// offset table  -> end of every var width column (STRING) as 2 bytes unsigned, relative to the start of the row
+//                  a column starts where the previous one ends, NULL ones take no space
+// a value in overflow pages is stored as page number + slot index + length
+public class TupleCodec {
+  static final int MAX_ROW_SIZE = 0xFFFF; // offsets are 2 bytes -> larger than any page anyway
+
+  private final TupleLayout layout;
+  private final DataType[] types;
+  private final int bitmapSize;
+  private final int[] positions; // fixed column -> offset in the row, var column -> index in the offset table
+  private final int offsetTableStart;
+  private final int varDataStart;
+
+  public TupleCodec(List<Column> schema) {
+    int numOfColumns = schema.size();
+    List<String> names = new ArrayList<>(numOfColumns);
+    this.types = new DataType[numOfColumns];
+    for (int i = 0; i < numOfColumns; i++) {
+      names.add(schema.get(i).getName());
+      this.types[i] = schema.get(i).getType();
+    }
+    this.layout = new TupleLayout(names);
+
+    this.bitmapSize = (numOfColumns + 7) / 8;
+    this.positions = new int[numOfColumns];
+    int fixedEnd = 2 * bitmapSize;
+    int numOfVarColumns = 0;
+    for (int i = 0; i < numOfColumns; i++) {
+      switch (types[i]) {
+        case INT -> {
+          positions[i] = fixedEnd;
+          fixedEnd += 4;
+        }
+
+        case STRING -> positions[i] = numOfVarColumns++;
+
+        // Add more data types (if needed)
+
+        default -> throw new IllegalArgumentException("Unknown column type: " + types[i]);
+      }
+    }
+    this.offsetTableStart = fixedEnd;
+    this.varDataStart = fixedEnd + 2 * numOfVarColumns;
+  }
+
+  public TupleLayout getLayout() {
+    return this.layout;
+  }
+
+  public DataType getType(int ordinal) {
+    return this.types[ordinal];
+  }
+
+  // ========== Column access on the serialized row ========== \\
+  // row -> the row is buffer[base, ...), absolute reads only
+
+  public boolean isNull(ByteBuffer row, int base, int ordinal) {
+    return isSet(row, base, ordinal);
+  }
+
+  public boolean isOverflow(ByteBuffer row, int base, int ordinal) {
+    return isSet(row, base + bitmapSize, ordinal);
+  }
+
+  public int getInt(ByteBuffer row, int base, int ordinal) {
+    return row.getInt(base + positions[ordinal]);
+  }
+
+  // start of a var width value, relative to base
+  public int getVarStart(ByteBuffer row, int base, int ordinal) {
+    int varIdx = positions[ordinal];
+    return varIdx == 0 ? varDataStart : getVarEnd(row, base, varIdx - 1);
+  }
+
+  public int getVarLength(ByteBuffer row, int base, int ordinal) {
+    return getVarEnd(row, base, positions[ordinal]) - getVarStart(row, base, ordinal);
+  }
+
+  // length of the value a pointer in the row stands for
+  public int getOverflowLength(ByteBuffer row, int base, int ordinal) {
+    return row.getInt(base + getVarStart(row, base, ordinal) + 8);
+  }
+
+  private int getVarEnd(ByteBuffer row, int base, int varIdx) {
+    return Short.toUnsignedInt(row.getShort(base + offsetTableStart + 2 * varIdx));
+  }
+
+  private static boolean isSet(ByteBuffer row, int bitmapStart, int ordinal) {
+    return (row.get(bitmapStart + ordinal / 8) & (1 << (ordinal % 8))) != 0;
+  }
+
+  // ========== Encoding ========== \\
+
+  public byte[] encode(Tuple tuple) {
+    return encode(tuple, new OverflowValue[types.length]);
+  }
+
+  // overflow[ordinal] != null -> the value is already stored in overflow pages, only its pointer goes in the row
+  public byte[] encode(Tuple tuple, OverflowValue[] overflow) {
+    Object[] values = valuesOf(tuple);
+    byte[][] strings = new byte[types.length][];
+    int size = varDataStart;
+    for (int i = 0; i < types.length; i++) {
+      if (types[i] == DataType.STRING && values[i] != null) {
+        if (overflow[i] != null) {
+          size += OverflowValue.ENCODED_SIZE;
+        } else {
+          strings[i] = ((String) values[i]).getBytes(StandardCharsets.UTF_8);
+          size += strings[i].length;
+        }
+      }
+    }
+    if (size > MAX_ROW_SIZE) {
+      throw new IllegalArgumentException("Row too large: " + size + " bytes");
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    int varEnd = varDataStart;
+    for (int i = 0; i < types.length; i++) {
+      if (values[i] == null) {
+        setBit(buffer, 0, i);
+      }
+
+      switch (types[i]) {
+        case INT -> {
+          if (values[i] != null) {
+            buffer.putInt(positions[i], (Integer) DataType.INT.parse(values[i]));
+          }
+        }
+
+        case STRING -> {
+          if (overflow[i] != null) {
+            setBit(buffer, bitmapSize, i);
+            buffer.putInt(varEnd, overflow[i].getFirstChunk().getPageNumber());
+            buffer.putInt(varEnd + 4, overflow[i].getFirstChunk().getSlotIndex());
+            buffer.putInt(varEnd + 8, overflow[i].getLength());
+            varEnd += OverflowValue.ENCODED_SIZE;
+          } else if (strings[i] != null) {
+            buffer.put(varEnd, strings[i]);
+            varEnd += strings[i].length;
+          }
+          buffer.putShort(offsetTableStart + 2 * positions[i], (short) varEnd);
+        }
+
+        default -> throw new IllegalArgumentException("Unknown column type: " + types[i]);
+      }
+    }
+    return buffer.array();
+  }
+
+  // size of the row with its values inline, the row is not built
+  // the fixed width values are parsed on the way -> a bad value fails here, before any of the row is stored
+  public int encodedSize(Tuple tuple) {
+    int size = varDataStart;
+    for (int i = 0; i < types.length; i++) {
+      Object value = tuple.getLayout() == layout ? tuple.getValue(i) : tuple.getValue(layout.getName(i));
+      if (value == null) {
+        continue;
+      }
+      if (types[i] == DataType.STRING) {
+        size += ((String) value).getBytes(StandardCharsets.UTF_8).length;
+      } else {
+        types[i].parse(value);
+      }
+    }
+    return size;
+  }
+
+  // ========== Decoding ========== \\
+
+  // lazy view over the row -> a column is only decoded when it is read
+  // overflowReader is used for the values stored in overflow pages, when (and if) they are accessed
+  public Tuple decode(byte[] data, RecordId id, OverflowReader overflowReader) {
+    return new Tuple(this, data, id, overflowReader);
+  }
+
+  // the value of one column, an OverflowValue placeholder for a value in overflow pages
+  Object decodeValue(ByteBuffer row, int ordinal) {
+    if (isNull(row, 0, ordinal)) {
+      return null;
+    }
+
+    switch (types[ordinal]) {
+      case INT -> {
+        return getInt(row, 0, ordinal);
+      }
+
+      case STRING -> {
+        int start = getVarStart(row, 0, ordinal);
+        if (isOverflow(row, 0, ordinal)) {
+          RecordId firstChunk = new RecordId(row.getInt(start), row.getInt(start + 4));
+          return new OverflowValue(firstChunk, row.getInt(start + 8));
+        }
+        return new String(row.array(), row.arrayOffset() + start, getVarLength(row, 0, ordinal), StandardCharsets.UTF_8);
+      }
+
+      default -> throw new IllegalArgumentException("Unknown column type: " + types[ordinal]);
+    }
+  }
+
+  // pointers of the values of the row stored in overflow pages
+  List<OverflowValue> overflowValuesOf(ByteBuffer row) {
+    List<OverflowValue> overflowValues = new ArrayList<>(0);
+    for (int i = 0; i < types.length; i++) {
+      if (!isNull(row, 0, i) && isOverflow(row, 0, i)) {
+        overflowValues.add((OverflowValue) decodeValue(row, i));
+      }
+    }
+    return overflowValues;
+  }
+
+  // values in schema order -> rows decoded by this codec already are, others (e.g. built from a map) are looked up by name
+  // a missing value is NULL
+  private Object[] valuesOf(Tuple tuple) {
+    Object[] values = new Object[types.length];
+    for (int i = 0; i < types.length; i++) {
+      values[i] = tuple.getLayout() == layout ? tuple.getValue(i) : tuple.getValue(layout.getName(i));
+    }
+    return values;
+  }
+
+  private static void setBit(ByteBuffer row, int bitmapStart, int ordinal) {
+    int idx = bitmapStart + ordinal / 8;
+    row.put(idx, (byte) (row.get(idx) | (1 << (ordinal % 8))));
+  }
+}
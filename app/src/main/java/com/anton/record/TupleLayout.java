@@ -0,0 +1,36 @@
+package com.anton.record;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// column names of a row and their ordinals -> shared by every row of a table (or of a projection)
+// the name lookup happens once per query, values are then reached by ordinal
+public class TupleLayout {
+  private final String[] names;
+  private final Map<String, Integer> ordinals;
+
+  public TupleLayout(List<String> names) {
+    this.names = names.toArray(new String[0]);
+    this.ordinals = new HashMap<>();
+    for (int i = 0; i < this.names.length; i++) {
+      if (this.ordinals.put(this.names[i], i) != null) {
+        throw new IllegalArgumentException("Duplicate column name: " + this.names[i]);
+      }
+    }
+  }
+
+  public int size() {
+    return this.names.length;
+  }
+
+  public String getName(int ordinal) {
+    return this.names[ordinal];
+  }
+
+  // -1 if there is no such column
+  public int ordinalOf(String name) {
+    Integer ordinal = this.ordinals.get(name);
+    return ordinal == null ? -1 : ordinal;
+  }
+}
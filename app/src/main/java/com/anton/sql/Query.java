@@ -23,9 +23,15 @@ enum QueryType {
 @Getter
 class CreateTableQuery extends Query {
   private final Map<String, String> columns; // data type is accepted as a String, and will be casted in DataType while creating the table
+  private final Map<String, String> options; // storage options from the WITH clause, e.g. mmap -> true
   public CreateTableQuery(String tableName, Map<String, String> columns) {
+    this(tableName, columns, Map.of());
+  }
+
+  public CreateTableQuery(String tableName, Map<String, String> columns, Map<String, String> options) {
     super(QueryType.CREATE_TABLE, tableName);
     this.columns = columns;
+    this.options = options;
   }
 }
 
@@ -42,10 +48,14 @@ class SelectQuery extends Query {
 
 @Getter
 class InsertQuery extends Query {
-  private final Map<String, Object> values;
-  public InsertQuery(String tableName, Map<String, Object> values) {
+  private final List<Map<String, Object>> rows; // one map per (...) group of the VALUES clause
+  public InsertQuery(String tableName, List<Map<String, Object>> rows) {
     super(QueryType.INSERT, tableName);
-    this.values = values;
+    this.rows = rows;
+  }
+
+  public InsertQuery(String tableName, Map<String, Object> values) {
+    this(tableName, List.of(values));
   }
 }
 
@@ -1,5 +1,7 @@
 package com.anton.sql;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -7,22 +9,21 @@ import java.util.Map;
 import com.anton.record.CatalogManager;
 import com.anton.record.Column;
 import com.anton.record.DataType;
+import com.anton.record.TableOptions;
 import com.anton.record.Tuple;
 
-public class QueryExecutor {
+public class QueryExecutor implements AutoCloseable {
   private final QueryParser parser;
   private final CatalogManager db;
 
   public QueryExecutor() {
     this.parser = new QueryParser();
-    CatalogManager db = null;
     try {
-      db = new CatalogManager();
-    } catch (Exception e) {
-      System.out.println("Failed to initiate QueryExecutor. E: " + e.getMessage());
-      e.printStackTrace();
+      this.db = new CatalogManager();
+    } catch (IOException e) {
+      // nothing can run without the catalog -> fail here instead of on the first query
+      throw new UncheckedIOException("Failed to initiate QueryExecutor", e);
     }
-    this.db = db;
   }
 
   public QueryExecutor(CatalogManager db) {
@@ -81,7 +82,7 @@ public class QueryExecutor {
       schema.add(col);
     }
     try {
-      db.createTable(q.getTableName(), schema);
+      db.createTable(q.getTableName(), schema, TableOptions.fromMap(q.getOptions()));
     } catch (Exception e) {
       System.out.println("Failed to create table: " + q.getTableName() + ". E: " + e.getMessage());
       e.printStackTrace();
@@ -90,9 +91,13 @@ public class QueryExecutor {
 
   public void executeInsert(Query query) {
     InsertQuery q = (InsertQuery) query;
-    Tuple tuple = new Tuple(q.getValues());
+    List<Tuple> tuples = new ArrayList<>();
+    for (Map<String, Object> values : q.getRows()) {
+      tuples.add(new Tuple(values));
+    }
     try {
-      db.insertTuple(q.getTableName(), tuple);
+      // all the rows of the statement go in as one batch
+      db.insertTuples(q.getTableName(), tuples);
     } catch (Exception e) {
       System.out.println("Failed to insert data in " + q.getTableName() + ". E: " + e.getMessage());
       e.printStackTrace();
@@ -129,4 +134,12 @@ public class QueryExecutor {
       e.printStackTrace();
     }
   }
+
+  // flushes every table and releases the file handles
+  @Override
+  public void close() throws IOException {
+    if (db != null) {
+      db.close();
+    }
+  }
 }
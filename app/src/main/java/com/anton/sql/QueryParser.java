@@ -25,8 +25,9 @@ public class QueryParser {
     }
   }
 
-  // CREATE TABLE <TABLE_NAME> (<FIELDS_WITH_DATA_TYPES>)
+  // CREATE TABLE <TABLE_NAME> (<FIELDS_WITH_DATA_TYPES>) [WITH (<OPTION> = <VALUE>, ...)]
   // e.g. CREATE TABLE users ('id' INT, 'name' STRING)
+  // e.g. CREATE TABLE countries ('code' STRING) WITH (mmap = true, page_size = 16KB)
   private CreateTableQuery parseCreateTable(String query) throws IllegalArgumentException {
     // Remove "CREATE TABLE" and trim
     if (!query.toUpperCase().startsWith("CREATE TABLE")) {
@@ -83,11 +84,52 @@ public class QueryParser {
       throw new IllegalArgumentException("No valid columns found in CREATE TABLE statement.");
     }
 
-    return new CreateTableQuery(tableName, values);
+    Map<String, String> options = parseTableOptions(query.substring(closeParenIdx + 1).trim());
+
+    return new CreateTableQuery(tableName, values, options);
   }
 
-  // INSERT INTO <TABLE_NAME> VALUES (<FIELDS_WITH_VALUES>)
+  // WITH (<OPTION> = <VALUE>, ...) -> storage options of the table, keys are lower cased
+  private Map<String, String> parseTableOptions(String clause) throws IllegalArgumentException {
+    Map<String, String> options = new HashMap<>();
+    if (clause.isEmpty()) {
+      return options;
+    }
+
+    if (!clause.toUpperCase().startsWith("WITH")) {
+      throw new IllegalArgumentException("Unexpected input after column definitions: '" + clause + "'");
+    }
+    clause = clause.substring("WITH".length()).trim();
+    if (!clause.startsWith("(") || !clause.endsWith(")")) {
+      throw new IllegalArgumentException("Table options must be enclosed in '(' and ')'");
+    }
+
+    for (String option : clause.substring(1, clause.length() - 1).split(",")) {
+      option = option.trim();
+      if (option.isEmpty())
+        continue;
+      String[] splitVal = option.split("=");
+      if (splitVal.length != 2) {
+        throw new IllegalArgumentException("Invalid table option: '" + option + "'. Expected format: option = value");
+      }
+
+      String name = splitVal[0].replace("'", "").replace("\"", "").trim().toLowerCase();
+      String value = splitVal[1].replace("'", "").replace("\"", "").trim();
+      if (name.isEmpty() || value.isEmpty()) {
+        throw new IllegalArgumentException("Table option name or value cannot be empty in: '" + option + "'");
+      }
+      if (options.containsKey(name)) {
+        throw new IllegalArgumentException("Duplicate table option: '" + name + "'");
+      }
+      options.put(name, value);
+    }
+
+    return options;
+  }
+
+  // INSERT INTO <TABLE_NAME> VALUES (<FIELDS_WITH_VALUES>), (<FIELDS_WITH_VALUES>) ...
   // e.g. INSERT INTO users VALUES ('id' 1, 'name', 'Anton')
+  // e.g. INSERT INTO users VALUES ('id' 1, 'name' 'Anton'), ('id' 2, 'name' 'Saad')
   private InsertQuery parseInsert(String query) throws IllegalArgumentException {
     // Remove "INSERT INTO" and trim
     if (!query.toUpperCase().startsWith("INSERT INTO")) {
@@ -103,16 +145,38 @@ public class QueryParser {
       throw new IllegalArgumentException("Table name is missing in INSERT INTO statement.");
     }
 
-    int openParenIdx = query.indexOf('(');
-    if (openParenIdx == -1) {
+    String rowsString = query.substring(query.indexOf("VALUES") + "VALUES".length()).trim();
+    if (!rowsString.startsWith("(")) {
       throw new IllegalArgumentException("Missing '(' after table name in INSERT INTO statement.");
     }
-    int closeParenIdx = query.indexOf(')', openParenIdx);
-    if (closeParenIdx == -1) {
-      throw new IllegalArgumentException("Missing closing ')' in INSERT INTO statement.");
+
+    // one row per (...) group, the groups are separated by a comma and nothing may follow the last one
+    List<Map<String, Object>> rows = new ArrayList<>();
+    while (true) {
+      int closeParenIdx = rowsString.indexOf(')');
+      if (closeParenIdx == -1) {
+        throw new IllegalArgumentException("Missing closing ')' in INSERT INTO statement.");
+      }
+      rows.add(parseInsertValues(rowsString.substring(1, closeParenIdx).trim()));
+      rowsString = rowsString.substring(closeParenIdx + 1).trim();
+      if (rowsString.isEmpty()) {
+        break;
+      }
+
+      if (!rowsString.startsWith(",")) {
+        throw new IllegalArgumentException("Expected ',' or the end of the statement after a row, found: '" + rowsString + "'");
+      }
+      rowsString = rowsString.substring(1).trim();
+      if (!rowsString.startsWith("(")) {
+        throw new IllegalArgumentException("Missing '(' after ',' in INSERT INTO statement.");
+      }
     }
 
-    String valuesString = query.substring(openParenIdx + 1, closeParenIdx).trim();
+    return new InsertQuery(tableName, rows);
+  }
+
+  // field-value pairs of one row of an INSERT
+  private Map<String, Object> parseInsertValues(String valuesString) throws IllegalArgumentException {
     if (valuesString.isEmpty()) {
       throw new IllegalArgumentException("No values specified in INSERT INTO statement.");
     }
@@ -146,7 +210,7 @@ public class QueryParser {
       throw new IllegalArgumentException("No valid field-value pairs found in INSERT INTO statement.");
     }
 
-    return new InsertQuery(tableName, values);
+    return values;
   }
 
   // SELECT <PARAMS OR *> FROM <TABLE_NAME> WHERE <CONDITION>
@@ -0,0 +1,32 @@
+package com.anton.storage;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+// snapshot of the buffer pool hit counters, regular page accesses and scan (ring) accesses counted apart
+public class BufferPoolStats {
+  private final long hits;
+  private final long misses;
+  private final long scanHits;
+  private final long scanMisses;
+
+  public double getHitRatio() {
+    return ratio(hits, misses);
+  }
+
+  public double getScanHitRatio() {
+    return ratio(scanHits, scanMisses);
+  }
+
+  private static double ratio(long hits, long misses) {
+    return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("hits=%d misses=%d (%.2f), scan hits=%d scan misses=%d (%.2f)",
+        hits, misses, getHitRatio(), scanHits, scanMisses, getScanHitRatio());
+  }
+}
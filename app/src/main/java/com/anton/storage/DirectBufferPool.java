@@ -0,0 +1,46 @@
+package com.anton.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// reusable direct buffers for file I/O -> reading or writing a page does not allocate
+// direct buffers also spare the channel the copy into its own temporary native buffer
+public class DirectBufferPool {
+  public static final int MAX_POOLED_PER_SIZE = 64;
+
+  private static final Map<Integer, Queue<ByteBuffer>> POOLS = new ConcurrentHashMap<>();
+  private static final Map<Integer, AtomicInteger> POOLED_COUNTS = new ConcurrentHashMap<>();
+
+  private DirectBufferPool() {}
+
+  // returns a cleared buffer of exactly size bytes, release it once done
+  public static ByteBuffer acquire(int size) {
+    ByteBuffer buffer = POOLS.computeIfAbsent(size, s -> new ConcurrentLinkedQueue<>()).poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(size);
+    }
+
+    POOLED_COUNTS.get(size).decrementAndGet();
+    buffer.clear();
+    return buffer;
+  }
+
+  public static void release(ByteBuffer buffer) {
+    if (!buffer.isDirect()) {
+      return;
+    }
+
+    int size = buffer.capacity();
+    AtomicInteger count = POOLED_COUNTS.computeIfAbsent(size, s -> new AtomicInteger());
+    // past the cap the buffer is just dropped and left to the GC
+    if (count.incrementAndGet() > MAX_POOLED_PER_SIZE) {
+      count.decrementAndGet();
+      return;
+    }
+    POOLS.computeIfAbsent(size, s -> new ConcurrentLinkedQueue<>()).offer(buffer);
+  }
+}
@@ -1,54 +1,184 @@
 package com.anton.storage;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
+// positional reads and writes on a FileChannel -> no shared file pointer, so any number of threads can use it at once
+// in memory mapped mode the file is mapped in fixed size chunks and reads/writes are plain memory copies
 public class FileManager implements AutoCloseable {
-  private RandomAccessFile raf;
+  public static final long MAPPING_CHUNK_SIZE = 16L * 1024 * 1024; // 16MB, a multiple of every page size
+
+  private FileChannel channel;
   private volatile boolean isClosed = false;
 
+  private final boolean memoryMapped;
+  private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+  // mapping a chunk grows the file to the chunk boundary -> the real end of the data is tracked here
+  private final AtomicLong mappedLength = new AtomicLong();
+
   public FileManager(String filePath) throws IOException {
+    this(filePath, false);
+  }
+
+  public FileManager(String filePath, boolean memoryMapped) throws IOException {
     File file = new File(filePath);
-    this.raf = new RandomAccessFile(file, "rw");
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.memoryMapped = memoryMapped;
+
+    if (memoryMapped) {
+      long size = channel.size();
+      mappedLength.set(size);
+      ensureMapped(size);
+    }
   }
 
-  // reads length bytes of data from the file starting from the current file pointer
+  public boolean isMemoryMapped() {
+    return this.memoryMapped;
+  }
+
+  // reads length bytes of data from the file starting at position
   public byte[] read(long position, int length) throws IOException {
-    raf.seek(position); // sets the file pointer to read and write the file
     byte[] buffer = new byte[length];
-    raf.readFully(buffer);
+    read(ByteBuffer.wrap(buffer), position);
     return buffer;
   }
 
-  // write the bytes (b) to the file stating from the file pointer
+  // fills dst (from its position to its limit) with the bytes of the file starting at position
+  public void read(ByteBuffer dst, long position) throws IOException {
+    if (memoryMapped) {
+      if (position + dst.remaining() > mappedLength.get()) {
+        throw new EOFException("Read past the end of the file at position " + position);
+      }
+      while (dst.hasRemaining()) {
+        int n = (int) Math.min(dst.remaining(), MAPPING_CHUNK_SIZE - position % MAPPING_CHUNK_SIZE);
+        dst.put(chunkAt(position).slice((int) (position % MAPPING_CHUNK_SIZE), n));
+        position += n;
+      }
+      return;
+    }
+
+    while (dst.hasRemaining()) {
+      int n = channel.read(dst, position);
+      if (n < 0) {
+        throw new EOFException("Read past the end of the file at position " + position);
+      }
+      position += n;
+    }
+  }
+
+  // write the bytes (b) to the file starting at position
   public void write(byte[] b, long position) throws IOException {
-    raf.seek(position);
-    raf.write(b);
+    write(ByteBuffer.wrap(b), position);
+  }
+
+  // writes src (from its position to its limit) to the file starting at position
+  public void write(ByteBuffer src, long position) throws IOException {
+    if (memoryMapped) {
+      long end = position + src.remaining();
+      ensureMapped(end);
+      while (src.hasRemaining()) {
+        int n = (int) Math.min(src.remaining(), MAPPING_CHUNK_SIZE - position % MAPPING_CHUNK_SIZE);
+        chunkAt(position).slice((int) (position % MAPPING_CHUNK_SIZE), n).put(src.slice(src.position(), n));
+        src.position(src.position() + n);
+        position += n;
+      }
+      mappedLength.accumulateAndGet(end, Math::max);
+      return;
+    }
+
+    while (src.hasRemaining()) {
+      position += channel.write(src, position);
+    }
+  }
+
+  // view straight into the mapping -> no copy, only for memory mapped files and ranges inside one chunk
+  public ByteBuffer slice(long position, int length) throws IOException {
+    if (!memoryMapped) {
+      throw new IllegalStateException("File is not memory mapped");
+    }
+    if (position + length > mappedLength.get()) {
+      throw new EOFException("Read past the end of the file at position " + position);
+    }
+    int offset = (int) (position % MAPPING_CHUNK_SIZE);
+    if (offset + length > MAPPING_CHUNK_SIZE) {
+      throw new IllegalArgumentException("Slice crosses a mapping chunk boundary");
+    }
+    return chunkAt(position).slice(offset, length);
   }
 
   public long getFileLength() throws IOException {
-    return raf.length();
+    return memoryMapped ? mappedLength.get() : channel.size();
+  }
+
+  // everything from length on is not data -> memory mapped files only move their end, the file is cut on close
+  public void truncate(long length) throws IOException {
+    if (memoryMapped) {
+      mappedLength.accumulateAndGet(length, Math::min);
+      return;
+    }
+    channel.truncate(length);
+  }
+
+  // durability point -> written data reaches the disk
+  public void force() throws IOException {
+    if (memoryMapped) {
+      for (MappedByteBuffer chunk : chunks) {
+        chunk.force();
+      }
+      return;
+    }
+    channel.force(false);
+  }
+
+  private MappedByteBuffer chunkAt(long position) {
+    return chunks[(int) (position / MAPPING_CHUNK_SIZE)];
+  }
+
+  // maps whole chunks until the mapping covers [0, end) -> the mapping grows in big steps, not page by page
+  private synchronized void ensureMapped(long end) throws IOException {
+    int needed = (int) ((end + MAPPING_CHUNK_SIZE - 1) / MAPPING_CHUNK_SIZE);
+    if (needed <= chunks.length) {
+      return;
+    }
+
+    MappedByteBuffer[] grown = Arrays.copyOf(chunks, needed);
+    for (int i = chunks.length; i < needed; i++) {
+      grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * MAPPING_CHUNK_SIZE, MAPPING_CHUNK_SIZE);
+    }
+    this.chunks = grown;
   }
 
   // close the file -> no read and write will be functional after this
   @Override
   public synchronized void close() throws IOException {
-    if (isClosed || raf == null) {
+    if (isClosed || channel == null) {
       return; // Already closed
     }
 
     try {
       // Flush any buffered data before closing
-      raf.getFD().sync();
+      force();
+      channel.force(true);
+      if (memoryMapped) {
+        // drop the zero filled tail of the last chunk
+        channel.truncate(mappedLength.get());
+      }
     } catch (IOException e) {
       System.err.println("Warning: Failed to sync file before closing: " + e.getMessage());
       // Continue with close even if sync fails
     } finally {
       try {
-        this.raf.close();
+        this.channel.close();
       } finally {
-        this.raf = null;
+        this.channel = null;
+        this.chunks = new MappedByteBuffer[0];
         this.isClosed = true;
       }
     }
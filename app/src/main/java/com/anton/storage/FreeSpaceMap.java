@@ -0,0 +1,142 @@
+package com.anton.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// free space map -> one byte per data page telling roughly how many bytes are free in it
+// stored inside the table file: map pages sit at fixed positions, each one covering the next entriesPerPage (= page size) data pages
+// page 0 (header) | map | data * entriesPerPage | map | data * entriesPerPage | ...
+//
+// the map is a hint, it is only written on flush -> after a crash it may be stale, callers correct it when a page turns out to be full
+public class FreeSpaceMap {
+  private static final int FIRST_MAP_PAGE = PageManager.HEADER_PAGE + 1;
+
+  private final PageManager pageManager;
+  private final int pageSize;
+  private final int entriesPerPage; // one byte per data page
+  private final int bucketSize; // free bytes are stored in buckets of this size
+  private final List<byte[]> segments = new ArrayList<>(); // content of every map page, in file order
+  private final List<Boolean> dirtySegments = new ArrayList<>();
+  private final List<Integer> segmentMax = new ArrayList<>(); // upper bound of the buckets in a segment -> full segments are skipped
+  private int lastInsertPage = -1; // append heavy workloads keep hitting the same page
+
+  public FreeSpaceMap(PageManager pageManager) throws IOException {
+    this.pageManager = pageManager;
+    this.pageSize = pageManager.getPageSize();
+    this.entriesPerPage = pageSize;
+    this.bucketSize = pageSize / 256;
+
+    int numOfPages = pageManager.getNumOfPages();
+    for (int mapPage = FIRST_MAP_PAGE; mapPage < numOfPages; mapPage += entriesPerPage + 1) {
+      byte[] segment = pageManager.readMetaPage(mapPage);
+      segments.add(segment);
+      dirtySegments.add(false);
+      segmentMax.add(255); // unknown until the segment is scanned once
+    }
+  }
+
+  public boolean isMapPage(int pageNumber) {
+    return pageNumber >= FIRST_MAP_PAGE && (pageNumber - FIRST_MAP_PAGE) % (entriesPerPage + 1) == 0;
+  }
+
+  // true for pages holding records (not the header and not a map page)
+  public boolean isDataPage(int pageNumber) {
+    return pageNumber > PageManager.HEADER_PAGE && !isMapPage(pageNumber);
+  }
+
+  // returns a data page which (according to the map) has at least requiredBytes free, or -1
+  public synchronized int findPage(int requiredBytes) {
+    int required = requiredBucket(requiredBytes);
+    if (required > 255) {
+      return -1;
+    }
+
+    if (lastInsertPage != -1 && getBucket(lastInsertPage) >= required) {
+      return lastInsertPage;
+    }
+
+    for (int seg = 0; seg < segments.size(); seg++) {
+      if (segmentMax.get(seg) < required) {
+        continue;
+      }
+
+      byte[] segment = segments.get(seg);
+      int max = 0;
+      for (int i = 0; i < entriesPerPage; i++) {
+        int bucket = segment[i] & 0xFF;
+        if (bucket >= required) {
+          return pageNumberOf(seg, i);
+        }
+        max = Math.max(max, bucket);
+      }
+      segmentMax.set(seg, max); // exact now
+    }
+
+    return -1;
+  }
+
+  // records the free space of a data page after it has been modified
+  public synchronized void update(int pageNumber, int freeBytes) {
+    int seg = segmentOf(pageNumber);
+    while (seg >= segments.size()) {
+      segments.add(new byte[pageSize]);
+      dirtySegments.add(true);
+      segmentMax.add(0);
+    }
+
+    int bucket = Math.min(255, Math.max(0, freeBytes) / bucketSize); // rounded down -> never promises more than there is
+    byte[] segment = segments.get(seg);
+    int idx = indexInSegment(pageNumber);
+    if ((segment[idx] & 0xFF) != bucket) {
+      segment[idx] = (byte) bucket;
+      dirtySegments.set(seg, true);
+      segmentMax.set(seg, Math.max(segmentMax.get(seg), bucket));
+    }
+  }
+
+  public synchronized void setLastInsertPage(int pageNumber) {
+    this.lastInsertPage = pageNumber;
+  }
+
+  // first page number at or after pageNumber that can hold records
+  public int nextDataPage(int pageNumber) {
+    while (!isDataPage(pageNumber)) {
+      pageNumber++;
+    }
+    return pageNumber;
+  }
+
+  public synchronized void flush() throws IOException {
+    for (int seg = 0; seg < segments.size(); seg++) {
+      if (dirtySegments.get(seg)) {
+        pageManager.writeMetaPage(FIRST_MAP_PAGE + seg * (entriesPerPage + 1), segments.get(seg));
+        dirtySegments.set(seg, false);
+      }
+    }
+  }
+
+  private int getBucket(int pageNumber) {
+    int seg = segmentOf(pageNumber);
+    if (seg >= segments.size()) {
+      return 0;
+    }
+    return segments.get(seg)[indexInSegment(pageNumber)] & 0xFF;
+  }
+
+  private int requiredBucket(int requiredBytes) {
+    return (requiredBytes + bucketSize - 1) / bucketSize; // rounded up
+  }
+
+  private int segmentOf(int pageNumber) {
+    return (pageNumber - FIRST_MAP_PAGE) / (entriesPerPage + 1);
+  }
+
+  private int indexInSegment(int pageNumber) {
+    return (pageNumber - FIRST_MAP_PAGE) % (entriesPerPage + 1) - 1;
+  }
+
+  private int pageNumberOf(int seg, int idx) {
+    return FIRST_MAP_PAGE + seg * (entriesPerPage + 1) + 1 + idx;
+  }
+}
@@ -2,164 +2,296 @@ package com.anton.storage;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 // fix sized chunk of data which will be read and written as a whole
+// slotted page, everything lives in one buffer that is read and written as is (no decoding):
+// | header | slot directory -> | free space | <- records |
+// header -> slot count, start of the records region, bytes of deleted records not given back yet, page type, first free slot
+// slot   -> offset of the record in the page, length of the record (0 -> deleted)
+// deleted slots form a free list (their offset links to the next one) -> inserts reuse them before growing the directory
 public class Page {
-  private final int PAGE_SIZE = 4096; // 4KB
-  private final byte[] data;
-  private List<Slot> slots;
-  private int freeSpacePointer;
+  public static final int DEFAULT_PAGE_SIZE = 4096; // 4KB
+  public static final int MIN_PAGE_SIZE = 4 * 1024;
+  public static final int MAX_PAGE_SIZE = 64 * 1024;
+  public static final int HEADER_SIZE = 20; // slot count + records start + dead bytes + page type + free slot head
+  public static final int SLOT_SIZE = 8; // offset + length of one slot directory entry
+
+  private static final int SLOT_COUNT_OFFSET = 0;
+  private static final int RECORDS_START_OFFSET = 4;
+  private static final int DEAD_BYTES_OFFSET = 8;
+  private static final int PAGE_TYPE_OFFSET = 12;
+  private static final int FREE_SLOT_HEAD_OFFSET = 16; // index + 1 of the first reusable slot, 0 -> none
+
+  public static final int TYPE_HEAP = 0; // rows of the table
+  public static final int TYPE_OVERFLOW = 1; // chunks of values too large to stay in their row
+
+  private final int pageSize;
+  private final ByteBuffer ownBuffer;
+  private ByteBuffer buffer; // ownBuffer, or a view into the mapping of a memory mapped file
+  // held for writing while the page is modified, for reading while it is read or written back
+  private final ReadWriteLock latch = new ReentrantReadWriteLock();
 
   public Page() {
-    this.data = new byte[PAGE_SIZE];
-    this.slots = new ArrayList<>();
-    this.freeSpacePointer = 0;
+    this(DEFAULT_PAGE_SIZE);
   }
 
-  public byte[] getData() {
-    return this.data;
+  public Page(int pageSize) {
+    this(ByteBuffer.allocate(pageSize));
   }
 
-  public Slot getSlot(int slotIdx) {
-    return this.slots.get(slotIdx);
+  // the page uses the given buffer as its storage (e.g. a pooled direct buffer), its capacity is the page size
+  public Page(ByteBuffer buffer) {
+    if (!isValidPageSize(buffer.capacity())) {
+      throw new IllegalArgumentException("E: Invalid page size: " + buffer.capacity());
+    }
+    this.pageSize = buffer.capacity();
+    this.ownBuffer = buffer;
+    this.buffer = buffer;
+    reset();
   }
 
-  public int getSlotsSize() {
-    return this.slots.size();
+  // 4, 8, 16, 32 or 64KB
+  public static boolean isValidPageSize(int pageSize) {
+    return pageSize >= MIN_PAGE_SIZE && pageSize <= MAX_PAGE_SIZE && Integer.bitCount(pageSize) == 1;
+  }
+
+  public int getPageSize() {
+    return this.pageSize;
   }
 
-  public void addSlot(Slot slot) {
-    this.slots.add(slot);
-    // Update freeSpacePointer to the end of the new slot if needed
-    int end = slot.getOffset() + slot.getLength();
-    if (end > this.freeSpacePointer) {
-      this.freeSpacePointer = end;
+  public ReadWriteLock getLatch() {
+    return this.latch;
+  }
+
+  public ByteBuffer getBuffer() {
+    return this.buffer;
+  }
+
+  // turns this into an empty page backed by its own buffer
+  public void reset() {
+    this.buffer = this.ownBuffer;
+    for (int i = 0; i < pageSize; i += 8) {
+      buffer.putLong(i, 0L);
     }
+    buffer.putInt(RECORDS_START_OFFSET, pageSize);
   }
 
+  // raw page image (header and slot directory included)
+  public byte[] getData() {
+    byte[] data = new byte[pageSize];
+    buffer.get(0, data);
+    return data;
+  }
+
+  // overwrites the raw page image from the beginning
   public void setData(byte[] data) {
-    if (data.length > PAGE_SIZE) {
+    if (data.length > pageSize) {
       throw new IllegalArgumentException("E: Data exceeds page size limit");
     }
 
-    System.arraycopy(data, 0, this.data, 0, data.length);
+    buffer.put(0, data);
+  }
+
+  public int getPageType() {
+    return buffer.getInt(PAGE_TYPE_OFFSET);
+  }
 
-    // this.data = data;
-    // this one just changes the pointer of of this.data to the new data, but it is better to just copy the data into its original data array.
+  public void setPageType(int pageType) {
+    buffer.putInt(PAGE_TYPE_OFFSET, pageType);
   }
 
-  public int getFreeSpacePointer() {
-    return this.freeSpacePointer;
+  public int getSlotsSize() {
+    return buffer.getInt(SLOT_COUNT_OFFSET);
   }
 
-  public void readFromFile(FileManager fileManager, int pageNumber) throws IOException {
-    long offset = (long) pageNumber * PAGE_SIZE;
-    byte[] pageData = fileManager.read(offset, PAGE_SIZE);
-    ByteBuffer buffer = ByteBuffer.wrap(pageData);
-    // Read slot count
-    int slotCount = buffer.getInt();
-    this.slots = new ArrayList<>();
-    for (int i = 0; i < slotCount; i++) {
-      int off = buffer.getInt();
-      int len = buffer.getInt();
-      slots.add(new Slot(off, len));
-    }
+  public int getSlotOffset(int slotIdx) {
+    return buffer.getInt(slotPosition(slotIdx));
+  }
+
+  public int getSlotLength(int slotIdx) {
+    return buffer.getInt(slotPosition(slotIdx) + 4);
+  }
 
-    int slotDirSize = 4 + slotCount * 8;
-    // Move buffer position to start of data region
-    buffer.position(slotDirSize);
+  private void setSlot(int slotIdx, int offset, int length) {
+    buffer.putInt(slotPosition(slotIdx), offset);
+    buffer.putInt(slotPosition(slotIdx) + 4, length);
+  }
 
-    int dataLength = PAGE_SIZE - slotDirSize;
-    if (dataLength > 0) {
-      buffer.get(this.data, 0, dataLength);
-    }
-    // Restore freeSpacePointer
-    int maxEnd = 0;
-    for (Slot s : slots) {
-      if (s.getOffset() + s.getLength() > maxEnd) {
-        maxEnd = s.getOffset() + s.getLength();
+  // start of the records region, records are appended downwards from the end of the page
+  private int getRecordsStart() {
+    int recordsStart = buffer.getInt(RECORDS_START_OFFSET);
+    return recordsStart == 0 ? pageSize : recordsStart; // never written (zero filled) page -> empty
+  }
+
+  // bytes left between the end of the slot directory and the start of the records
+  public int getFreeSpace() {
+    return getRecordsStart() - HEADER_SIZE - getSlotsSize() * SLOT_SIZE;
+  }
+
+  public boolean isLive(int slotIdx) {
+    return getSlotLength(slotIdx) > 0;
+  }
+
+  public int getLiveRecordCount() {
+    int count = 0;
+    for (int i = 0; i < getSlotsSize(); i++) {
+      if (isLive(i)) {
+        count++;
       }
     }
-    this.freeSpacePointer = maxEnd;
+    return count;
   }
 
-  public void writeToFile(FileManager fileManager, int pageNumber) throws IOException {
-    ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
-    // Write slot count
-    buffer.putInt(this.slots.size());
-    // Write each slot's offset and length
-    for (Slot slot : this.slots) {
-      buffer.putInt(slot.getOffset());
-      buffer.putInt(slot.getLength());
-    }
-    // Write the data array (after slot directory)
-    int slotDirSize = 4 + this.slots.size() * 8; // 4 bytes for count, 8 bytes per slot
-    int dataLength = Math.min(data.length, PAGE_SIZE - slotDirSize);
-    // Fill up to slotDirSize with zeros if needed
-    while (buffer.position() < slotDirSize) buffer.put((byte) 0);
-    buffer.put(this.data, 0, dataLength);
-    // Fill the rest with zeros if needed
-    while (buffer.position() < PAGE_SIZE) buffer.put((byte) 0);
-    fileManager.write(buffer.array(), (long) pageNumber * PAGE_SIZE);
+  // bytes taken by deleted records, given back by the next compaction
+  public int getDeadBytes() {
+    return buffer.getInt(DEAD_BYTES_OFFSET);
+  }
+
+  // free space an insert can count on, compacting first if needed
+  public int getReclaimableSpace() {
+    return getFreeSpace() + getDeadBytes();
+  }
+
+  // true once deleted records take more than threshold (fraction of the page) of the page
+  public boolean needsCompaction(double threshold) {
+    return getDeadBytes() > threshold * pageSize;
   }
 
-  public CompletableFuture<Void> compact() {
-    return CompletableFuture.runAsync(() -> {
-      this.compactPage();
-    }).thenRun(() -> System.out.println("Compaction done!"));
+  public boolean hasFreeSlot() {
+    return buffer.getInt(FREE_SLOT_HEAD_OFFSET) != 0;
   }
 
-  private void compactPage() {
-    // filter valid slots (separate deleted slots)
-    List<Slot> validSlots = this.slots.stream().filter(s -> s.getLength() > 0).toList();
-    // Sort slots by offset (to maintain correct copy order)
-    validSlots.sort((a, b) -> Integer.compare(a.getOffset(), b.getOffset()));
+  // stores the record and returns its slot index, or -1 if it does not fit
+  // a deleted slot is reused if there is one -> ids of live records never change
+  public int insertRecord(byte[] record) {
+    // the record and its slot directory entry (unless a deleted one is reused)
+    boolean reuseSlot = hasFreeSlot();
+    int required = record.length + (reuseSlot ? 0 : SLOT_SIZE);
+    if (getFreeSpace() < required) {
+      if (getReclaimableSpace() < required) {
+        return -1;
+      }
+      // the space is there, only fragmented -> compact lazily now that it is needed
+      compact();
+      // dropped trailing slots may have emptied the free list, their entries gave back at least a slot worth of space
+      reuseSlot = hasFreeSlot();
+    }
 
-    ByteBuffer buffer = ByteBuffer.wrap(this.data);
+    int offset = getRecordsStart() - record.length;
+    buffer.put(offset, record);
+    buffer.putInt(RECORDS_START_OFFSET, offset);
 
-    // pointer to write from the begining
-    int writePos = 0;
-    for (Slot s : validSlots) {
-      int offset = s.getOffset();
-      int length = s.getLength();
+    int slotIdx;
+    if (reuseSlot) {
+      slotIdx = buffer.getInt(FREE_SLOT_HEAD_OFFSET) - 1;
+      buffer.putInt(FREE_SLOT_HEAD_OFFSET, getSlotOffset(slotIdx)); // next free slot
+    } else {
+      slotIdx = getSlotsSize();
+      buffer.putInt(SLOT_COUNT_OFFSET, slotIdx + 1);
+    }
+    setSlot(slotIdx, offset, record.length);
+    return slotIdx;
+  }
 
-      if (offset != writePos) {
-        byte[] record = new byte[length];
+  public byte[] readRecord(int slotIdx) {
+    if (slotIdx < 0 || slotIdx >= getSlotsSize()) {
+      throw new IllegalStateException("Slot is empty or deleted");
+    }
+    int offset = getSlotOffset(slotIdx);
+    int length = getSlotLength(slotIdx);
+    if (length <= 0) {
+      throw new IllegalStateException("Slot is empty or deleted");
+    }
 
-        // move the record forward
-        buffer.position(offset);
-        buffer.get(record);
+    byte[] record = new byte[length];
+    buffer.get(offset, record);
+    return record;
+  }
 
-        buffer.position(writePos);
-        buffer.put(record);
+  // mark deleted (tombstone) and push the slot on the free list -> the record space is given back by compaction
+  public void deleteRecord(int slotIdx) {
+    if (slotIdx < 0 || slotIdx >= getSlotsSize() || getSlotLength(slotIdx) <= 0) {
+      throw new IllegalStateException("Slot is empty or deleted");
+    }
 
-        // update the slot offset
-        s.setOffset(writePos);
-      }
+    int length = getSlotLength(slotIdx);
+    setSlot(slotIdx, buffer.getInt(FREE_SLOT_HEAD_OFFSET), 0);
+    buffer.putInt(FREE_SLOT_HEAD_OFFSET, slotIdx + 1);
+    buffer.putInt(DEAD_BYTES_OFFSET, getDeadBytes() + length);
+  }
 
-      writePos += length;
+  // the page number is in units of this page's size
+  public void readFromFile(FileManager fileManager, int pageNumber) throws IOException {
+    long offset = (long) pageNumber * pageSize;
+    if (fileManager.isMemoryMapped()) {
+      // the page is a view straight into the mapping -> nothing is copied
+      this.buffer = fileManager.slice(offset, pageSize);
+      return;
     }
 
-    // clear the leftover space at the end
-    buffer.position(writePos);
+    this.buffer = this.ownBuffer;
+    // one read straight into the page, the layout on disk is the layout in memory
+    fileManager.read(this.buffer.clear(), offset);
+    this.buffer.clear();
+  }
 
-    while (buffer.position() < this.PAGE_SIZE) {
-      buffer.put((byte) 0);
+  public void writeToFile(FileManager fileManager, int pageNumber) throws IOException {
+    if (this.buffer != this.ownBuffer) {
+      return; // a view into the mapping -> the changes are already in the file
     }
 
-    // update the freeSpacePointer after compaction
-    this.freeSpacePointer = writePos;
+    fileManager.write(this.buffer.duplicate().clear(), (long) pageNumber * pageSize);
+  }
+
+  // packs the live records against the end of the page, in place
+  // deleted slots at the end of the directory are dropped, the others are relinked lowest index first
+  // the caller must hold the write latch
+  public void compact() {
+    int slotCount = getSlotsSize();
+    // live records are copied out and packed again against the end of the page
+    byte[] records = new byte[pageSize];
+    int writePos = pageSize;
+    int usedSlots = 0;
+    for (int i = 0; i < slotCount; i++) {
+      int length = getSlotLength(i);
+      if (length <= 0) {
+        continue;
+      }
+
+      writePos -= length;
+      buffer.get(getSlotOffset(i), records, writePos, length);
+      setSlot(i, writePos, length);
+      usedSlots = i + 1;
+    }
 
-    // update the slot directory
-    for (Slot s : this.slots) {
-      // so that deleted slots do not point to any data
-      if (s.getLength() == 0 || s.getOffset() < 0) {
-        s.setLength(0);
-        s.setOffset(-1);
+    int freeSlotHead = 0;
+    for (int i = usedSlots - 1; i >= 0; i--) {
+      if (getSlotLength(i) <= 0) {
+        setSlot(i, freeSlotHead, 0);
+        freeSlotHead = i + 1;
       }
     }
+    for (int i = usedSlots; i < slotCount; i++) {
+      setSlot(i, 0, 0);
+    }
+    buffer.putInt(SLOT_COUNT_OFFSET, usedSlots);
+    buffer.putInt(FREE_SLOT_HEAD_OFFSET, freeSlotHead);
+
+    int recordsStart = getRecordsStart();
+    buffer.put(writePos, records, writePos, pageSize - writePos);
+    // clear the space given back
+    for (int i = recordsStart; i < writePos; i++) {
+      buffer.put(i, (byte) 0);
+    }
+
+    // update the start of the records after compaction
+    buffer.putInt(RECORDS_START_OFFSET, writePos);
+    buffer.putInt(DEAD_BYTES_OFFSET, 0);
+  }
+
+  private static int slotPosition(int slotIdx) {
+    return HEADER_SIZE + slotIdx * SLOT_SIZE;
   }
 }
@@ -1,69 +1,760 @@
 package com.anton.storage;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
 
-// maintains mapping of page numbers -> page objects
+// buffer pool -> keeps a bounded number of pages in memory and maps page numbers -> frames
+// every page access goes through fetchPage/unpinPage, a pinned page is never evicted
+// modified pages are only marked dirty, a background flusher writes them back in batches
+// sequential access is detected and the next pages are read ahead on a background thread
+// scans fetch through a ScanRing -> they cycle through a few frames of their own instead of pushing out hot pages
 public class PageManager implements AutoCloseable {
+  public static final int DEFAULT_POOL_SIZE = 64; // frames
+  public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+  public static final int FLUSH_BATCH_SIZE = 32; // max pages written back per flusher run
+  public static final int DEFAULT_PREFETCH_WINDOW = 8; // pages read ahead of a sequential scan
+  private static final int SEQUENTIAL_THRESHOLD = 3; // consecutive page numbers before read ahead kicks in
+  public static final int DEFAULT_SCAN_RING_SIZE = 8; // frames a scan recycles, capped at a quarter of the pool
+
+  // page 0 of every table file is a header page, never handed out as a slotted page
+  public static final int HEADER_PAGE = 0;
+  private static final int MAGIC = 0x414E544E; // "ANTN"
+  private static final int FORMAT_VERSION = 8; // 8 -> header keeps the end of the data of memory mapped files
+  private static final int HEADER_FIELDS_SIZE = 20; // magic + version + page size + data length
+  private static final int DATA_LENGTH_OFFSET = 12;
+
+  // one daemon thread shared by every open table
+  private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "anton-page-flusher");
+    t.setDaemon(true);
+    return t;
+  });
+
+  // one daemon thread shared by every open table, reads pages ahead of sequential scans
+  private static final ExecutorService PREFETCHER = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "anton-page-prefetcher");
+    t.setDaemon(true);
+    return t;
+  });
+
   private final FileManager fileManager;
-  private final Map<Integer, Page> pageCache = new HashMap<>();
+  private final int pageSize;
+  private final Frame[] frames;
+  private final Map<Integer, Integer> pageTable = new HashMap<>(); // page number -> frame index
+  private int clockHand = 0;
+  private int numOfPages;
+  private final ScheduledFuture<?> flushTask;
+  private int flushPins = 0; // frames pinned by a flush batch being written, close waits for them
+  private boolean isClosed = false;
+  // memory mapped files grow a whole mapping chunk at a time and only close cuts the zero filled tail off
+  // -> the end of the data is kept in the header so that a file not closed (crash) is cut on open, 0 otherwise
+  private volatile long dataLength = 0;
+
+  // read ahead state
+  private int prefetchWindow;
+  private IntPredicate prefetchable = pageNumber -> true; // pages outside the pool (e.g. free space map) must never be read ahead
+  private final AccessRun accessRun = new AccessRun(); // regular accesses, every scan ring tracks its own
+
+  // hit counters, regular accesses and scan accesses apart
+  private long hits = 0;
+  private long misses = 0;
+  private long scanHits = 0;
+  private long scanMisses = 0;
+
+  // a slot in the buffer pool holding one page
+  private static class Frame {
+    private Page page; // created on first use, reused for every page loaded into the frame
+    private ByteBuffer storage; // direct buffer backing the page, borrowed from the DirectBufferPool
+    private int pageNumber = -1; // -1 -> frame is empty
+    private int pinCount = 0;
+    private boolean dirty = false;
+    private long modifications = 0; // bumped on every dirty unpin -> tells the flusher if the page changed while it was written
+    private boolean referenced = false; // second chance bit for CLOCK
+    private boolean loading = false; // read (or victim write back) in progress, fetchPage waits for it
+    private boolean prefetched = false; // read ahead and not used yet -> first to be evicted
+    // loaded through a scan ring -> read ahead leaves it to the ring (which would otherwise fall back to CLOCK)
+    // stays set until the frame is loaded for something else, so the frames of a finished scan go back through CLOCK
+    private boolean inRing = false;
+  }
+
+  // run of consecutive page numbers seen by one stream of accesses
+  private static class AccessRun {
+    private int lastPage = -1;
+    private int length = 0;
+    private int prefetchedUpTo = -1; // highest page already requested for the current run
+  }
+
+  // the frames a scan loaded its pages into, reused round robin once full
+  // a page someone else touched meanwhile (referenced or pinned) is left to the pool and the ring takes another frame
+  public static class ScanRing {
+    private final int[] frameIdxs;
+    private int size = 0;
+    private int next = 0;
+    // concurrent scans (e.g. partitions of a parallel scan) are each detected as sequential
+    private final AccessRun accessRun = new AccessRun();
+
+    private ScanRing(int capacity) {
+      this.frameIdxs = new int[capacity];
+    }
+  }
+
+  public PageManager(FileManager fileManager) throws IOException {
+    this(fileManager, DEFAULT_POOL_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+  }
+
+  public PageManager(FileManager fileManager, int poolSize) throws IOException {
+    this(fileManager, poolSize, DEFAULT_FLUSH_INTERVAL_MS);
+  }
+
+  public PageManager(FileManager fileManager, int poolSize, long flushIntervalMs) throws IOException {
+    this(fileManager, poolSize, flushIntervalMs, Page.DEFAULT_PAGE_SIZE);
+  }
+
+  // flushIntervalMs <= 0 disables the background flusher, pages are then only written on eviction and flushAll
+  // pageSize is only used for a new (empty) file, an existing file keeps the page size recorded in its header
+  public PageManager(FileManager fileManager, int poolSize, long flushIntervalMs, int pageSize) throws IOException {
+    if (poolSize <= 0) {
+      throw new IllegalArgumentException("Buffer pool size must be positive");
+    }
+    if (!Page.isValidPageSize(pageSize)) {
+      throw new IllegalArgumentException("Invalid page size: " + pageSize);
+    }
 
-  public PageManager(FileManager fileManager) {
     this.fileManager = fileManager;
+    // a memory mapped file is paged in by the OS, reading it ahead would only copy pointers around
+    this.prefetchWindow = fileManager.isMemoryMapped() ? 0 : Math.min(DEFAULT_PREFETCH_WINDOW, poolSize / 4);
+    this.frames = new Frame[poolSize];
+    for (int i = 0; i < poolSize; i++) {
+      this.frames[i] = new Frame();
+    }
+
+    if (fileManager.getFileLength() == 0) {
+      this.pageSize = pageSize;
+      writeHeader();
+    } else {
+      this.pageSize = readHeader();
+      if (fileManager.isMemoryMapped() && dataLength > 0 && dataLength < fileManager.getFileLength()) {
+        fileManager.truncate(dataLength);
+      }
+    }
+    this.numOfPages = (int) (fileManager.getFileLength() / this.pageSize);
+
+    if (flushIntervalMs > 0) {
+      this.flushTask = FLUSHER.scheduleWithFixedDelay(this::backgroundFlush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    } else {
+      this.flushTask = null;
+    }
+  }
+
+  // pages read ahead once sequential access is detected, 0 disables read ahead
+  public synchronized void setPrefetchWindow(int window) {
+    if (window < 0 || window >= frames.length) {
+      throw new IllegalArgumentException("Prefetch window must be between 0 and the pool size");
+    }
+    this.prefetchWindow = fileManager.isMemoryMapped() ? 0 : window;
+  }
+
+  // tells which pages are slotted pages -> meta pages (e.g. free space map) must never be read into the pool
+  public synchronized void setPrefetchFilter(IntPredicate prefetchable) {
+    this.prefetchable = prefetchable;
+  }
+
+  // a ring for one scan, see fetchPage(int, ScanRing)
+  public ScanRing newScanRing() {
+    return newScanRing(1);
+  }
+
+  // a ring for one of the workers of a scan -> the workers share what a single scan may take
+  public ScanRing newScanRing(int workers) {
+    return new ScanRing(Math.max(1, Math.min(DEFAULT_SCAN_RING_SIZE, frames.length / 4) / workers));
+  }
+
+  // returns the page pinned, caller must call unpinPage once done with it
+  public Page fetchPage(int pageNumber) throws IOException {
+    return fetchPage(pageNumber, null);
+  }
+
+  // ring != null -> scan access: a miss loads the page into one of the ring's frames and a hit does not
+  // give the page a second chance, so pages only a scan ever touched stay cold
+  // a miss only reserves the frame under the pool lock, writing back the victim and reading the page happen
+  // outside of it (same as read ahead) -> misses on different pages do not wait for each other's I/O
+  public Page fetchPage(int pageNumber, ScanRing ring) throws IOException {
+    if (pageNumber <= HEADER_PAGE) {
+      throw new IllegalArgumentException("Invalid page number: " + pageNumber);
+    }
+
+    Frame frame;
+    int victimIdx;
+    int oldPageNumber;
+    boolean writeOld;
+    boolean isNew;
+    synchronized (this) {
+      Integer frameIdx = pageTable.get(pageNumber);
+      // the page is being loaded (read ahead or another miss) -> wait for that read instead of issuing a second one
+      while (frameIdx != null && frames[frameIdx].loading) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for page " + pageNumber);
+        }
+        frameIdx = pageTable.get(pageNumber); // the read may have failed and the frame been reused
+      }
+      detectSequentialAccess(pageNumber, ring == null ? accessRun : ring.accessRun);
+
+      if (frameIdx != null) {
+        frame = frames[frameIdx];
+        frame.pinCount++;
+        frame.referenced |= ring == null;
+        frame.prefetched = false;
+        if (ring == null) {
+          hits++;
+        } else {
+          scanHits++;
+        }
+        return frame.page;
+      }
+
+      if (ring == null) {
+        misses++;
+        victimIdx = findVictim();
+      } else {
+        scanMisses++;
+        victimIdx = findRingVictim(ring);
+      }
+      frame = frames[victimIdx];
+      oldPageNumber = frame.pageNumber;
+      // a dirty victim keeps its page number mapped until it is written back -> a fetch of it waits
+      // for the write instead of reading the stale image from the file
+      writeOld = oldPageNumber != -1 && frame.dirty;
+      if (oldPageNumber != -1 && !writeOld) {
+        pageTable.remove(oldPageNumber);
+      }
+
+      if (frame.page == null) {
+        frame.storage = DirectBufferPool.acquire(pageSize);
+        frame.page = new Page(frame.storage);
+      }
+      isNew = pageNumber >= numOfPages;
+      if (isNew) {
+        // page past the end of the file -> hand out an empty page, the file grows when it is written back
+        numOfPages = pageNumber + 1;
+      }
+      // pinned while loading -> neither evicted nor handed out before the read is done
+      frame.pageNumber = pageNumber;
+      frame.pinCount = 1;
+      frame.loading = true;
+      frame.dirty = false;
+      frame.referenced = false;
+      frame.prefetched = false;
+      frame.inRing = ring != null;
+      pageTable.put(pageNumber, victimIdx);
+    }
+
+    IOException failure = null;
+    boolean written = !writeOld;
+    try {
+      if (writeOld) {
+        writeLatched(frame.page, oldPageNumber);
+        written = true;
+      }
+      if (isNew) {
+        frame.page.reset();
+      } else {
+        frame.page.readFromFile(fileManager, pageNumber);
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+
+    synchronized (this) {
+      frame.loading = false;
+      if (failure == null) {
+        if (writeOld) {
+          pageTable.remove(oldPageNumber);
+        }
+        frame.dirty = isNew; // new pages must reach the disk even if nothing is written into them
+        frame.referenced = ring == null;
+      } else {
+        pageTable.remove(pageNumber);
+        frame.pinCount = 0;
+        if (isNew && numOfPages == pageNumber + 1) {
+          numOfPages = pageNumber;
+        }
+        if (written) {
+          if (writeOld) {
+            pageTable.remove(oldPageNumber);
+          }
+          frame.pageNumber = -1;
+        } else {
+          // the victim never reached the file -> it stays in the frame, still dirty
+          frame.pageNumber = oldPageNumber;
+          frame.dirty = true;
+        }
+      }
+      notifyAll();
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+    return frame.page;
+  }
+
+  // the next frame of the ring if it can be reused, otherwise a frame from CLOCK that joins the ring
+  private int findRingVictim(ScanRing ring) {
+    if (ring.size < ring.frameIdxs.length) {
+      int idx = findVictim();
+      ring.frameIdxs[ring.size++] = idx;
+      return idx;
+    }
+
+    int slot = ring.next;
+    ring.next = (ring.next + 1) % ring.frameIdxs.length;
+    Frame frame = frames[ring.frameIdxs[slot]];
+    if (frame.pinCount > 0 || frame.referenced) {
+      ring.frameIdxs[slot] = findVictim();
+    }
+    return ring.frameIdxs[slot];
+  }
+
+  public synchronized BufferPoolStats getStats() {
+    return new BufferPoolStats(hits, misses, scanHits, scanMisses);
+  }
+
+  // a run of consecutive page numbers -> request the pages ahead of it that were not requested yet
+  private void detectSequentialAccess(int pageNumber, AccessRun run) {
+    if (pageNumber == run.lastPage + 1) {
+      run.length++;
+    } else if (pageNumber != run.lastPage) {
+      run.length = 1;
+      run.prefetchedUpTo = pageNumber;
+    }
+    run.lastPage = pageNumber;
+
+    if (prefetchWindow == 0 || run.length < SEQUENTIAL_THRESHOLD) {
+      return;
+    }
+    int from = Math.max(pageNumber + 1, run.prefetchedUpTo + 1);
+    int to = Math.min(pageNumber + prefetchWindow, numOfPages - 1);
+    if (from > to) {
+      return;
+    }
+    run.prefetchedUpTo = to;
+    PREFETCHER.execute(() -> prefetch(from, to));
+  }
+
+  private void prefetch(int from, int to) {
+    for (int pageNumber = from; pageNumber <= to; pageNumber++) {
+      try {
+        if (!prefetchPage(pageNumber)) {
+          return; // closed, or no frame to spare -> the scan reads the pages itself
+        }
+      } catch (IOException e) {
+        return; // the scan reads the page itself and gets the error there
+      }
+    }
+  }
+
+  // reads the page into a spare frame, the read itself happens outside the pool lock
+  // returns false if there was no frame that could be taken without evicting a recently used page
+  private boolean prefetchPage(int pageNumber) throws IOException {
+    Frame frame;
+    synchronized (this) {
+      if (isClosed) {
+        return false;
+      }
+      if (pageTable.containsKey(pageNumber) || pageNumber >= numOfPages || !prefetchable.test(pageNumber)) {
+        return true;
+      }
+
+      int victimIdx = findPrefetchVictim();
+      if (victimIdx == -1) {
+        return false;
+      }
+      frame = frames[victimIdx];
+      evict(frame);
+      if (frame.page == null) {
+        frame.storage = DirectBufferPool.acquire(pageSize);
+        frame.page = new Page(frame.storage);
+      }
+      // pinned while loading -> neither evicted nor handed out before the read is done
+      frame.pageNumber = pageNumber;
+      frame.pinCount = 1;
+      frame.loading = true;
+      frame.inRing = false;
+      pageTable.put(pageNumber, victimIdx);
+    }
+
+    IOException failure = null;
+    try {
+      frame.page.readFromFile(fileManager, pageNumber);
+    } catch (IOException e) {
+      failure = e;
+    }
+
+    synchronized (this) {
+      frame.loading = false;
+      frame.pinCount = 0;
+      if (failure != null) {
+        pageTable.remove(pageNumber);
+        frame.pageNumber = -1;
+      } else {
+        // not referenced -> if the scan never gets to it, it is the next victim
+        frame.referenced = false;
+        frame.prefetched = true;
+      }
+      notifyAll();
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+    return true;
+  }
+
+  // an empty frame, otherwise a clean unpinned page without a second chance, -1 if there is none
+  // unlike findVictim no reference bit is cleared -> reading ahead never pushes out pages in use,
+  // nor the pages it read ahead itself and the scan did not get to yet, nor the frames of a scan ring
+  private int findPrefetchVictim() {
+    int candidate = -1;
+    for (int i = 0; i < frames.length; i++) {
+      int idx = (clockHand + i) % frames.length;
+      Frame frame = frames[idx];
+      if (frame.pageNumber == -1) {
+        return idx;
+      }
+      if (candidate == -1 && frame.pinCount == 0 && !frame.referenced && !frame.dirty && !frame.prefetched && !frame.inRing) {
+        candidate = idx;
+      }
+    }
+    return candidate;
+  }
+
+  // true if the page is in the buffer pool (read ahead pages included once loaded)
+  synchronized boolean isCached(int pageNumber) {
+    Integer frameIdx = pageTable.get(pageNumber);
+    return frameIdx != null && !frames[frameIdx].loading;
+  }
+
+  public synchronized void unpinPage(int pageNumber, boolean isDirty) {
+    Integer frameIdx = pageTable.get(pageNumber);
+    if (frameIdx == null) {
+      throw new IllegalStateException("Page " + pageNumber + " is not in the buffer pool");
+    }
+
+    Frame frame = frames[frameIdx];
+    if (frame.pinCount <= 0) {
+      throw new IllegalStateException("Page " + pageNumber + " is not pinned");
+    }
+    frame.pinCount--;
+    if (isDirty) {
+      frame.dirty = true;
+      frame.modifications++;
+    }
+  }
+
+  // pages that are not slotted pages (file header, free space map) are read and written raw, bypassing the pool
+  public synchronized byte[] readMetaPage(int pageNumber) throws IOException {
+    if (pageTable.containsKey(pageNumber)) {
+      throw new IllegalStateException("Page " + pageNumber + " is a slotted page");
+    }
+
+    if (pageNumber >= numOfPages || (long) (pageNumber + 1) * pageSize > fileManager.getFileLength()) {
+      return new byte[pageSize]; // not written yet
+    }
+    return fileManager.read((long) pageNumber * pageSize, pageSize);
   }
 
-  public Page getPage(int pageNumber) throws IOException {
-    // If page already exists
-    if (pageCache.containsKey(pageNumber)) {
-      return pageCache.get(pageNumber);
+  public synchronized void writeMetaPage(int pageNumber, byte[] data) throws IOException {
+    if (data.length != pageSize) {
+      throw new IllegalArgumentException("Meta page must be exactly " + pageSize + " bytes");
     }
+    if (pageTable.containsKey(pageNumber)) {
+      throw new IllegalStateException("Page " + pageNumber + " is a slotted page");
+    }
+
+    fileManager.write(data, (long) pageNumber * pageSize);
+    recordDataLength();
+    numOfPages = Math.max(numOfPages, pageNumber + 1);
+  }
+
+  public synchronized int getNumOfPages() {
+    return this.numOfPages;
+  }
 
-    // Check if the page exists in the file
-    long offset = (long) pageNumber * 4096; // PAGE_SIZE
-    long fileLength = fileManager.getFileLength();
-    Page page = new Page();
-    if (offset < fileLength) {
-      page.readFromFile(fileManager, pageNumber);
+  // writes the page back if it is in the pool and dirty
+  public synchronized void flushPage(int pageNumber) throws IOException {
+    Integer frameIdx = pageTable.get(pageNumber);
+    if (frameIdx == null) {
+      return;
     }
-    // else: leave as empty page
 
-    pageCache.put(pageNumber, page);
-    return page;
+    writeBack(frames[frameIdx]);
+  }
+
+  // checkpoint -> writes every dirty page back in page number order
+  public synchronized void flushAll() throws IOException {
+    List<Frame> dirtyFrames = new ArrayList<>();
+    for (Frame frame : frames) {
+      if (frame.pageNumber != -1 && frame.dirty) {
+        dirtyFrames.add(frame);
+      }
+    }
+    dirtyFrames.sort(Comparator.comparingInt(f -> f.pageNumber));
+
+    for (Frame frame : dirtyFrames) {
+      writeBack(frame);
+    }
   }
 
-  public void writePage(int pageNumber, Page page) throws IOException {
-    page.writeToFile(fileManager, pageNumber);
-    if (pageCache.containsKey(pageNumber)) {
-      pageCache.put(pageNumber, page);
+  public synchronized int getNumOfDirtyPages() {
+    int count = 0;
+    for (Frame frame : frames) {
+      if (frame.pageNumber != -1 && frame.dirty) {
+        count++;
+      }
     }
+    return count;
   }
 
-  public Page allocateNewPage() {
-    Page page = new Page();
-    int newPageNumber = pageCache.size(); // will improve this further
-    pageCache.put(newPageNumber, page);
-    return page;
+  // writes back a batch of unpinned dirty pages, sorted so the file is written sequentially
+  // the frames stay pinned while they are written so they can not be evicted mid-write
+  void flushDirtyPages(int maxPages) throws IOException {
+    List<Frame> batch = new ArrayList<>();
+    List<Integer> pageNumbers = new ArrayList<>();
+    List<Long> versions = new ArrayList<>();
+    synchronized (this) {
+      if (isClosed) {
+        return;
+      }
+      List<Frame> candidates = new ArrayList<>();
+      for (Frame frame : frames) {
+        if (frame.pageNumber != -1 && frame.dirty && frame.pinCount == 0) {
+          candidates.add(frame);
+        }
+      }
+      candidates.sort(Comparator.comparingInt(f -> f.pageNumber));
+
+      for (Frame frame : candidates.subList(0, Math.min(maxPages, candidates.size()))) {
+        frame.pinCount++;
+        flushPins++;
+        batch.add(frame);
+        pageNumbers.add(frame.pageNumber);
+        versions.add(frame.modifications);
+      }
+    }
+
+    IOException failure = null;
+    for (int i = 0; i < batch.size(); i++) {
+      Frame frame = batch.get(i);
+      int pageNumber = pageNumbers.get(i);
+      try {
+        writeLatched(frame.page, pageNumber);
+        synchronized (this) {
+          // a write that landed while we were flushing keeps the page dirty
+          if (frame.modifications == versions.get(i)) {
+            frame.dirty = false;
+          }
+        }
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        synchronized (this) {
+          unpinPage(pageNumber, false);
+          flushPins--;
+          notifyAll();
+        }
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void backgroundFlush() {
+    try {
+      flushDirtyPages(FLUSH_BATCH_SIZE);
+    } catch (Exception e) {
+      // keep the pages dirty, the next run (or close) retries them
+      System.err.println("Background flush failed. E: " + e.getMessage());
+    }
   }
 
-  public int getNumOfPages() {
-    return this.pageCache.size();
+  private void writeBack(Frame frame) throws IOException {
+    if (frame.dirty) {
+      writeLatched(frame.page, frame.pageNumber);
+      frame.dirty = false;
+    }
   }
 
-  public void flushPage(int pageNumber) throws IOException {
-    Page page = pageCache.get(pageNumber);
-    if (page != null) {
+  // read latch -> the page can not be modified while its image is being written
+  private void writeLatched(Page page, int pageNumber) throws IOException {
+    page.getLatch().readLock().lock();
+    try {
       page.writeToFile(fileManager, pageNumber);
+    } finally {
+      page.getLatch().readLock().unlock();
+    }
+    recordDataLength();
+  }
+
+  // the file grew -> its new end goes into the header, a plain memory write for a memory mapped file
+  private void recordDataLength() throws IOException {
+    long length = fileManager.getFileLength();
+    if (!fileManager.isMemoryMapped() || length <= dataLength) {
+      return;
+    }
+
+    synchronized (this) {
+      if (length > dataLength) {
+        fileManager.write(ByteBuffer.allocate(Long.BYTES).putLong(0, length), DATA_LENGTH_OFFSET);
+        dataLength = length;
+      }
+    }
+  }
+
+  // durability point -> everything written so far reaches the disk (forces the mapping for memory mapped files)
+  public void force() throws IOException {
+    fileManager.force();
+  }
+
+  public int getPageSize() {
+    return this.pageSize;
+  }
+
+  public int getPoolSize() {
+    return this.frames.length;
+  }
+
+  private void writeHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(pageSize);
+    header.putInt(MAGIC);
+    header.putInt(FORMAT_VERSION);
+    header.putInt(pageSize);
+    header.putLong(fileManager.isMemoryMapped() ? pageSize : 0);
+    writeMetaPage(HEADER_PAGE, header.array());
+  }
+
+  // validates the header and returns the page size of the file, the data length is kept in dataLength
+  // the header fields sit at the very start of the file -> they can be read before the page size is known
+  private int readHeader() throws IOException {
+    if (fileManager.getFileLength() < HEADER_FIELDS_SIZE) {
+      throw new IOException("Not an Anton table file (too short)");
+    }
+
+    ByteBuffer header = ByteBuffer.wrap(fileManager.read(0, HEADER_FIELDS_SIZE));
+    if (header.getInt() != MAGIC) {
+      throw new IOException("Not an Anton table file (bad magic number)");
     }
+    int version = header.getInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported table file version: " + version);
+    }
+    int filePageSize = header.getInt();
+    if (!Page.isValidPageSize(filePageSize)) {
+      throw new IOException("Corrupt table file header, invalid page size: " + filePageSize);
+    }
+    this.dataLength = header.getLong();
+    return filePageSize;
+  }
+
+  // CLOCK -> sweep the frames, clearing reference bits, until an unpinned frame without a second chance is found
+  private int findVictim() {
+    // two full sweeps are enough: the first one clears every reference bit
+    for (int i = 0; i < 2 * frames.length; i++) {
+      Frame frame = frames[clockHand];
+      int idx = clockHand;
+      clockHand = (clockHand + 1) % frames.length;
+
+      if (frame.pageNumber == -1) {
+        return idx;
+      }
+      if (frame.pinCount > 0) {
+        continue;
+      }
+      if (frame.referenced) {
+        frame.referenced = false;
+        continue;
+      }
+      return idx;
+    }
+
+    throw new IllegalStateException("Buffer pool exhausted: all " + frames.length + " frames are pinned");
+  }
+
+  private boolean hasLoadingFrames() {
+    for (Frame frame : frames) {
+      if (frame.loading) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void evict(Frame frame) throws IOException {
+    if (frame.pageNumber == -1) {
+      return;
+    }
+
+    writeBack(frame);
+    pageTable.remove(frame.pageNumber);
+    frame.pageNumber = -1;
+    frame.dirty = false;
+    frame.referenced = false;
+    frame.prefetched = false;
   }
 
   @Override
-  public void close() throws IOException {
-    // Clear the page cache first
-    pageCache.clear();
-    
-    if (fileManager != null) {
-      fileManager.close();
+  public synchronized void close() throws IOException {
+    if (flushTask != null) {
+      flushTask.cancel(false);
+    }
+    isClosed = true;
+    // cancel does not stop a flush already running -> the buffers can not go back to the pool
+    // (nor the file be closed) while it, or a read, still uses them
+    boolean interrupted = false;
+    while (hasLoadingFrames() || flushPins > 0) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      // write back whatever is still dirty before dropping the pool
+      flushAll();
+    } finally {
+      pageTable.clear();
+      for (Frame frame : frames) {
+        if (frame.storage != null) {
+          DirectBufferPool.release(frame.storage);
+        }
+        frame.page = null;
+        frame.storage = null;
+        frame.pageNumber = -1;
+      }
+
+      if (fileManager != null) {
+        fileManager.close();
+      }
     }
   }
 }
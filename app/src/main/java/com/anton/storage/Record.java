@@ -2,12 +2,22 @@ package com.anton.storage;
 
 // in-memory representation of record (data)
 public class Record {
+  private final RecordId id; // where the record lives, null if it is not stored yet
   private final byte[] data;
   
   public Record(byte[] data) {
+    this(null, data);
+  }
+
+  public Record(RecordId id, byte[] data) {
+    this.id = id;
     this.data = data;
   }
 
+  public RecordId getId() {
+    return this.id;
+  }
+
   public byte[] getData() {
     return this.data;
   }
@@ -0,0 +1,77 @@
+package com.anton.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// sequential scan over the heap pages of a file -> pages in physical order, live records in slot order
+// only one page worth of records is held at a time, and no page stays pinned between two calls
+// header, free space map and overflow pages are skipped
+// pages are fetched through a scan ring -> a full scan does not push the hot pages out of the buffer pool
+// the filter runs on the records in the page, only the ones passing it are copied out
+public class RecordCursor implements Iterator<Record> {
+  private final PageManager pageManager;
+  private final FreeSpaceMap freeSpaceMap;
+  private final PageManager.ScanRing ring;
+  private final RecordFilter filter;
+  private final Deque<Record> pageRecords = new ArrayDeque<>(); // live records of the current page not handed out yet
+  private int nextPage;
+  private final int endPage; // exclusive
+
+  // pages [fromPage, endPage)
+  RecordCursor(PageManager pageManager, FreeSpaceMap freeSpaceMap, int fromPage, int endPage, RecordFilter filter, PageManager.ScanRing ring) {
+    this.pageManager = pageManager;
+    this.freeSpaceMap = freeSpaceMap;
+    this.filter = filter;
+    this.ring = ring;
+    this.nextPage = Math.max(fromPage, PageManager.HEADER_PAGE + 1);
+    this.endPage = endPage;
+  }
+
+  @Override
+  public boolean hasNext() {
+    // pages appended while scanning are picked up as well (unless past the end of the range)
+    while (pageRecords.isEmpty() && nextPage < Math.min(endPage, pageManager.getNumOfPages())) {
+      int pageNumber = nextPage++;
+      if (!freeSpaceMap.isDataPage(pageNumber)) {
+        continue;
+      }
+      try {
+        loadPage(pageNumber);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to scan page " + pageNumber, e);
+      }
+    }
+    return !pageRecords.isEmpty();
+  }
+
+  @Override
+  public Record next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return pageRecords.poll();
+  }
+
+  // copies the live records passing the filter out of the page under its read latch
+  private void loadPage(int pageNumber) throws IOException {
+    Page page = pageManager.fetchPage(pageNumber, ring);
+    page.getLatch().readLock().lock();
+    try {
+      if (page.getPageType() != Page.TYPE_HEAP) {
+        return;
+      }
+      for (int slot = 0; slot < page.getSlotsSize(); slot++) {
+        if (page.isLive(slot) && filter.test(page.getBuffer(), page.getSlotOffset(slot), page.getSlotLength(slot))) {
+          pageRecords.add(new Record(new RecordId(pageNumber, slot), page.readRecord(slot)));
+        }
+      }
+    } finally {
+      page.getLatch().readLock().unlock();
+      pageManager.unpinPage(pageNumber, false);
+    }
+  }
+}
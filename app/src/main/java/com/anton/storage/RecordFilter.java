@@ -0,0 +1,12 @@
+package com.anton.storage;
+
+import java.nio.ByteBuffer;
+
+// test run by a scan on a record while it is still in its page -> records that do not pass are never copied out
+@FunctionalInterface
+public interface RecordFilter {
+  RecordFilter ALL = (page, offset, length) -> true;
+
+  // the record is page[offset, offset + length), absolute reads only (the buffer is shared)
+  boolean test(ByteBuffer page, int offset, int length);
+}
@@ -1,16 +1,16 @@
 package com.anton.storage;
 
-import java.io.Serializable;
-
 import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 
 @Getter
 @Setter
 @AllArgsConstructor
+@EqualsAndHashCode // ids read back from the pages match the ones handed out on insert
 // details to find the Record
-public class RecordId implements Serializable {
+public class RecordId {
   private int pageNumber;
   private int slotIndex; // index of the record in the page
 }
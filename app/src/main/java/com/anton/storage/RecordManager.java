@@ -2,42 +2,221 @@ package com.anton.storage;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class RecordManager implements AutoCloseable {
+  // a page is compacted once its deleted records take more than this fraction of it
+  public static final double DEFAULT_COMPACTION_THRESHOLD = 0.25;
+  // every overflow chunk starts with the id (page number + slot index) of the next chunk
+  private static final int OVERFLOW_LINK_SIZE = 8;
+
   private final PageManager pageManager;
+  private final FreeSpaceMap freeSpaceMap;
+  private final double compactionThreshold;
+  private volatile int lastOverflowPage = -1; // the last chunk of a chain rarely fills its page -> the next chain starts there
+
+  public RecordManager(PageManager pageManager) throws IOException {
+    this(pageManager, DEFAULT_COMPACTION_THRESHOLD);
+  }
+
+  public RecordManager(PageManager pageManager, double compactionThreshold) throws IOException {
+    if (compactionThreshold < 0 || compactionThreshold > 1) {
+      throw new IllegalArgumentException("Compaction threshold must be between 0 and 1");
+    }
 
-  public RecordManager(PageManager pageManager) {
     this.pageManager = pageManager;
+    this.freeSpaceMap = new FreeSpaceMap(pageManager);
+    pageManager.setPrefetchFilter(freeSpaceMap::isDataPage);
+    this.compactionThreshold = compactionThreshold;
   }
 
   public RecordId insertRecord(byte[] data) throws IOException {
-    int numOfPages = pageManager.getNumOfPages();
+    return insertRecords(List.of(data)).get(0);
+  }
+
+  // bulk load -> records are packed into a page one after another while they fit,
+  // so every page is fetched, latched and marked dirty once and the free space map is updated once per page
+  // returns the ids in the order of the records
+  public List<RecordId> insertRecords(List<byte[]> records) throws IOException {
+    List<RecordId> ids = new ArrayList<>(records.size());
+    insertRecords(records, ids);
+    return ids;
+  }
+
+  // same, the ids go into the (empty) ids list as the records are stored
+  // not atomic across pages -> after a failure the records before ids.size() are stored, the others are not
+  public void insertRecords(List<byte[]> records, List<RecordId> ids) throws IOException {
+    if (!ids.isEmpty()) {
+      throw new IllegalArgumentException("ids must be empty");
+    }
+    for (byte[] data : records) {
+      if (data.length + Page.SLOT_SIZE > pageManager.getPageSize() - Page.HEADER_SIZE) {
+        throw new IllegalStateException("Record too large for a page");
+      }
+    }
+
+    while (ids.size() < records.size()) {
+      // no progress -> the map was stale (it has been corrected by fillPage) or another writer took the page, look again
+      fillPage(choosePage(records.get(ids.size())), records, ids);
+    }
+  }
+
+  // a page the free space map says has room for data, otherwise a new one appended to the file
+  private int choosePage(byte[] data) {
+    int pageNumber = freeSpaceMap.findPage(data.length + Page.SLOT_SIZE);
+    if (pageNumber != -1) {
+      return pageNumber;
+    }
+
+    // past the end of the file (skipping map pages) -> the pool hands out a new empty page
+    return freeSpaceMap.nextDataPage(pageManager.getNumOfPages());
+  }
 
-    // try inserting the record in all the existing pages, will improve this later
-    for (int i = 0; i < numOfPages; i++) {
-      Page page = pageManager.getPage(i); // i -> pageNumber
-      RecordId id = tryInsertingIntoPage(page, i, data);
+  // inserts records (starting at ids.size()) into the page until one does not fit, adding their ids to ids
+  private void fillPage(int pageNumber, List<byte[]> records, List<RecordId> ids) throws IOException {
+    Page page = pageManager.fetchPage(pageNumber);
+    boolean modified = false;
+    page.getLatch().writeLock().lock();
+    try {
+      if (page.getPageType() != Page.TYPE_HEAP) {
+        freeSpaceMap.update(pageNumber, 0); // rows never go to overflow pages
+        return;
+      }
+
+      while (ids.size() < records.size()) {
+        RecordId id = tryInsertingIntoPage(page, pageNumber, records.get(ids.size()));
+        if (id == null) {
+          break;
+        }
+        ids.add(id);
+        modified = true;
+      }
+
+      freeSpaceMap.update(pageNumber, page.getReclaimableSpace());
+      if (modified) {
+        freeSpaceMap.setLastInsertPage(pageNumber);
+      }
+    } finally {
+      page.getLatch().writeLock().unlock();
+      // only marked dirty, the flusher writes it back
+      pageManager.unpinPage(pageNumber, modified);
+    }
+  }
+
+  // largest record a single page can hold
+  public int getMaxRecordSize() {
+    return pageManager.getPageSize() - Page.HEADER_SIZE - Page.SLOT_SIZE;
+  }
+
+  // ========== Overflow pages ========== \\
 
-      // if we found the required space in any of the page then update that page
+  // stores a value too large to stay in its row in a chain of chunks on dedicated overflow pages
+  // returns the id of the first chunk
+  public RecordId insertOverflow(byte[] value) throws IOException {
+    int chunkCapacity = getMaxRecordSize() - OVERFLOW_LINK_SIZE;
+    int numOfChunks = Math.max(1, (value.length + chunkCapacity - 1) / chunkCapacity);
+
+    // written back to front so every chunk already knows the id of the next one
+    RecordId next = null;
+    for (int i = numOfChunks - 1; i >= 0; i--) {
+      int from = i * chunkCapacity;
+      int length = Math.min(chunkCapacity, value.length - from);
+
+      ByteBuffer chunk = ByteBuffer.allocate(OVERFLOW_LINK_SIZE + length);
+      chunk.putInt(next == null ? -1 : next.getPageNumber());
+      chunk.putInt(next == null ? -1 : next.getSlotIndex());
+      chunk.put(value, from, length);
+      next = insertOverflowChunk(chunk.array());
+    }
+    return next;
+  }
+
+  public byte[] readOverflow(RecordId firstChunk, int length) throws IOException {
+    byte[] value = new byte[length];
+    int position = 0;
+    RecordId id = firstChunk;
+    while (id != null) {
+      ByteBuffer chunk = ByteBuffer.wrap(readRecord(id));
+      int nextPage = chunk.getInt();
+      int nextSlot = chunk.getInt();
+      int chunkLength = chunk.remaining();
+      if (position + chunkLength > length) {
+        throw new IllegalStateException("Corrupt overflow chain starting at page " + firstChunk.getPageNumber());
+      }
+      chunk.get(value, position, chunkLength);
+      position += chunkLength;
+      id = nextPage == -1 ? null : new RecordId(nextPage, nextSlot);
+    }
+
+    if (position != length) {
+      throw new IllegalStateException("Corrupt overflow chain starting at page " + firstChunk.getPageNumber());
+    }
+    return value;
+  }
+
+  public void deleteOverflow(RecordId firstChunk) throws IOException {
+    List<RecordId> chain = new ArrayList<>();
+    RecordId id = firstChunk;
+    while (id != null) {
+      chain.add(id);
+      ByteBuffer chunk = ByteBuffer.wrap(readRecord(id));
+      int nextPage = chunk.getInt();
+      int nextSlot = chunk.getInt();
+      id = nextPage == -1 ? null : new RecordId(nextPage, nextSlot);
+    }
+    deleteRecords(chain);
+  }
+
+  private RecordId insertOverflowChunk(byte[] chunk) throws IOException {
+    int overflowPage = lastOverflowPage;
+    if (overflowPage != -1) {
+      RecordId id = insertIntoOverflowPage(overflowPage, chunk);
       if (id != null) {
-        pageManager.writePage(i, page);
         return id;
       }
     }
 
-    // if required space is not found in any of the pages
-    Page newPage = pageManager.getPage(numOfPages); // this function will return a new page and will add it to the 'pageCache'.
-    RecordId id = tryInsertingIntoPage(newPage, numOfPages, data);
-    if (id == null) {
-      throw new IllegalStateException("Record too large for a page");
+    // overflow pages are never handed out by the free space map -> always a fresh page
+    while (true) {
+      int newPageNumber = freeSpaceMap.nextDataPage(pageManager.getNumOfPages());
+      RecordId id = insertIntoOverflowPage(newPageNumber, chunk);
+      if (id != null) {
+        lastOverflowPage = newPageNumber;
+        return id;
+      }
+    }
+  }
+
+  private RecordId insertIntoOverflowPage(int pageNumber, byte[] chunk) throws IOException {
+    Page page = pageManager.fetchPage(pageNumber);
+    RecordId id = null;
+    page.getLatch().writeLock().lock();
+    try {
+      if (page.getSlotsSize() == 0 && page.getPageType() == Page.TYPE_HEAP) {
+        page.setPageType(Page.TYPE_OVERFLOW); // a brand new page
+      }
+      if (page.getPageType() == Page.TYPE_OVERFLOW) {
+        id = tryInsertingIntoPage(page, pageNumber, chunk);
+      }
+    } finally {
+      page.getLatch().writeLock().unlock();
+      pageManager.unpinPage(pageNumber, id != null);
     }
-    pageManager.writePage(numOfPages, newPage);
     return id;
   }
 
   public byte[] readRecord(RecordId id) throws IOException {
-    Page page = pageManager.getPage(id.getPageNumber());
-    return readFromPage(page, id.getSlotIndex());
+    Page page = pageManager.fetchPage(id.getPageNumber());
+    page.getLatch().readLock().lock();
+    try {
+      return readFromPage(page, id.getSlotIndex());
+    } finally {
+      page.getLatch().readLock().unlock();
+      pageManager.unpinPage(id.getPageNumber(), false);
+    }
   }
 
   public byte[] readFromPage(Page page, int slotIndex) {
@@ -50,64 +229,115 @@ public class RecordManager implements AutoCloseable {
       throw new IllegalStateException("No slots found in this page");
     }
 
-    Slot slot = page.getSlot(slotIndex);
+    return page.readRecord(slotIndex);
+  }
 
-    int offset = slot.getOffset();
-    int length = slot.getLength();
+  // one sequential pass over the live records of every heap page
+  public RecordCursor scan() {
+    return scan(PageManager.HEADER_PAGE + 1, Integer.MAX_VALUE, RecordFilter.ALL);
+  }
 
-    if (offset < 0 || length <= 0) {
-      throw new IllegalStateException("Slot is empty or deleted");
-    }
+  // live records of the heap pages in [fromPage, endPage) passing the filter -> disjoint ranges can be scanned in parallel
+  public RecordCursor scan(int fromPage, int endPage, RecordFilter filter) {
+    return scan(fromPage, endPage, filter, pageManager.newScanRing());
+  }
 
-    ByteBuffer buffer = ByteBuffer.wrap(page.getData());
+  // same, through a ring the caller keeps -> the partitions a worker scans one after another reuse its frames
+  public RecordCursor scan(int fromPage, int endPage, RecordFilter filter, PageManager.ScanRing ring) {
+    return new RecordCursor(pageManager, freeSpaceMap, fromPage, endPage, filter, ring);
+  }
 
-    byte[] data = new byte[length];
-    buffer.position(offset);
-    buffer.get(data); // reads the the next data.length bytes and stores it into the data
-    return data;
+  public PageManager.ScanRing newScanRing(int workers) {
+    return pageManager.newScanRing(workers);
+  }
+
+  public int getNumOfPages() {
+    return pageManager.getNumOfPages();
   }
 
   public void deleteRecord(RecordId id) throws IOException {
-    Page page = pageManager.getPage(id.getPageNumber());
-    int slotIndex = id.getSlotIndex();
+    deleteFromPage(id.getPageNumber(), List.of(id.getSlotIndex()));
+  }
 
-    if (slotIndex < 0) {
-      throw new IllegalArgumentException("Invalid slot index");
+  // deletes are grouped by page -> every page is latched, and at most compacted, once per batch
+  public void deleteRecords(List<RecordId> ids) throws IOException {
+    Map<Integer, List<Integer>> slotsByPage = new TreeMap<>();
+    for (RecordId id : ids) {
+      slotsByPage.computeIfAbsent(id.getPageNumber(), p -> new ArrayList<>()).add(id.getSlotIndex());
+    }
+
+    for (Map.Entry<Integer, List<Integer>> entry : slotsByPage.entrySet()) {
+      deleteFromPage(entry.getKey(), entry.getValue());
+    }
+  }
+
+  // tombstones the slots, the page is only compacted once enough of it is dead
+  private void deleteFromPage(int pageNumber, List<Integer> slotIndexes) throws IOException {
+    for (int slotIndex : slotIndexes) {
+      if (slotIndex < 0) {
+        throw new IllegalArgumentException("Invalid slot index");
+      }
     }
 
-    Slot slot = page.getSlot(slotIndex);
-    slot.setLength(0); // mark deleted, not changing the offset -> will be used to clear the memory
+    Page page = pageManager.fetchPage(pageNumber);
+    boolean modified = false;
+    page.getLatch().writeLock().lock();
+    try {
+      for (int slotIndex : slotIndexes) {
+        if (slotIndex >= page.getSlotsSize()) {
+          throw new IllegalArgumentException("Invalid slot index");
+        }
+        page.deleteRecord(slotIndex);
+        modified = true;
+      }
 
-    // actually delete the record asynchronously
-    page.compact();
-    // write the updated page
-    pageManager.writePage(id.getPageNumber(), page);
+      if (page.getPageType() == Page.TYPE_OVERFLOW) {
+        // an overflow page only becomes a regular page again once all its chunks are gone
+        if (page.getLiveRecordCount() == 0) {
+          page.compact();
+          page.setPageType(Page.TYPE_HEAP);
+          freeSpaceMap.update(pageNumber, page.getReclaimableSpace());
+        }
+        return;
+      }
+
+      if (page.needsCompaction(compactionThreshold)) {
+        page.compact();
+      }
+      // dead bytes count as free, an insert compacts the page when it needs them
+      freeSpaceMap.update(pageNumber, page.getReclaimableSpace());
+    } finally {
+      page.getLatch().writeLock().unlock();
+      // only marked dirty, the flusher writes it back
+      pageManager.unpinPage(pageNumber, modified);
+    }
   }
 
-  // try inserting data into the page if 
+  // try inserting data into the page, null if it does not fit
   public RecordId tryInsertingIntoPage(Page page, int pageNumber, byte[] data) {
-    byte[] pageData = page.getData();
-    ByteBuffer buffer = ByteBuffer.wrap(pageData); // buffer -> so we can read/write data without manually shifting the bytes
-    int fps = page.getFreeSpacePointer();
-
-    // space check
-    if (fps + data.length > pageData.length) {
+    int slotIndex = page.insertRecord(data);
+    if (slotIndex == -1) {
       return null; // not enough space
     }
 
-    // Write a new Record
-    buffer.position(fps); // sets the buffer's pointer at the end of the data in the page
-    buffer.put(data); // stores the data in the page
+    return new RecordId(pageNumber, slotIndex);
+  }
 
-    Slot slot = new Slot(fps, data.length);
-    page.addSlot(slot);
+  public BufferPoolStats getBufferPoolStats() {
+    return pageManager.getStats();
+  }
 
-    return new RecordId(pageNumber, page.getSlotsSize() - 1);
+  // checkpoint -> every dirty page of this file reaches the disk
+  public void flush() throws IOException {
+    freeSpaceMap.flush();
+    pageManager.flushAll();
+    pageManager.force();
   }
 
   @Override
   public void close() throws IOException {
     if (pageManager != null) {
+      freeSpaceMap.flush();
       pageManager.close();
     }
   }
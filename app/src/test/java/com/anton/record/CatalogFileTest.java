@@ -0,0 +1,112 @@
+package com.anton.record;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.*;
+
+public class CatalogFileTest {
+  private static final File FILE = new File("test_catalog_file.db");
+  private static final File LOG = new File("test_catalog_file.db.log");
+  private static final File INVALID = new File("test_catalog_file.db.invalid");
+
+  @BeforeEach
+  @AfterEach
+  void cleanup() {
+    FILE.delete();
+    LOG.delete();
+    INVALID.delete();
+  }
+
+  private static TableEntry entry(String name) {
+    return new TableEntry(name, "storage/" + name + ".tbl",
+        List.of(new Column("id", DataType.INT), new Column("name", DataType.STRING)),
+        new TableOptions(true, 8192));
+  }
+
+  @Test
+  void testLogIsReplayedOverTheSnapshot() throws Exception {
+    CatalogFile catalog = new CatalogFile(FILE);
+    catalog.compact(List.of(entry("a")));
+    catalog.logCreate(entry("b"));
+    catalog.logCreate(entry("c"));
+    catalog.logDrop("a");
+    long snapshotSize = FILE.length();
+
+    List<TableEntry> loaded = new CatalogFile(FILE).load();
+    assertEquals(List.of("b", "c"), loaded.stream().map(TableEntry::getTableName).toList());
+    TableEntry b = loaded.get(0);
+    assertEquals("storage/b.tbl", b.getFileName());
+    assertEquals("name", b.getColumns().get(1).getName());
+    assertEquals(DataType.STRING, b.getColumns().get(1).getType());
+    assertTrue(b.getOptions().isMemoryMapped());
+    assertEquals(8192, b.getOptions().getPageSize());
+    // DDL only appended to the log
+    assertEquals(snapshotSize, FILE.length());
+  }
+
+  @Test
+  void testTornRecordAtTheEndIsIgnored() throws Exception {
+    CatalogFile catalog = new CatalogFile(FILE);
+    catalog.compact(List.of());
+    catalog.logCreate(entry("a"));
+    byte[] log = Files.readAllBytes(LOG.toPath());
+    catalog.logCreate(entry("b"));
+    // crash in the middle of the append of c
+    try (FileOutputStream out = new FileOutputStream(LOG, true)) {
+      out.write(log, 0, log.length / 2);
+    }
+
+    CatalogFile reopened = new CatalogFile(FILE);
+    assertEquals(List.of("a", "b"), reopened.load().stream().map(TableEntry::getTableName).toList());
+    // appends after the recovery are not lost behind the torn record
+    reopened.logCreate(entry("d"));
+    assertEquals(List.of("a", "b", "d"), new CatalogFile(FILE).load().stream().map(TableEntry::getTableName).toList());
+  }
+
+  @Test
+  void testCompactionEmptiesTheLog() throws Exception {
+    CatalogFile catalog = new CatalogFile(FILE);
+    catalog.compact(List.of());
+    for (int i = 0; i < CatalogFile.COMPACT_AFTER; i++) {
+      assertFalse(catalog.needsCompaction());
+      catalog.logCreate(entry("t" + i));
+    }
+    assertTrue(catalog.needsCompaction());
+
+    List<TableEntry> tables = new CatalogFile(FILE).load();
+    assertEquals(CatalogFile.COMPACT_AFTER, tables.size());
+    catalog.compact(tables);
+    assertEquals(0, LOG.length());
+    assertFalse(catalog.needsCompaction());
+    assertEquals(tables.size(), new CatalogFile(FILE).load().size());
+  }
+
+  @Test
+  void testCatalogInAnOldFormatStartsEmpty() throws Exception {
+    // stream header of a Java serialized object, as written by the old catalog
+    Files.write(FILE.toPath(), new byte[] { (byte) 0xAC, (byte) 0xED, 0x00, 0x05, 0x73, 0x72 });
+
+    CatalogFile catalog = new CatalogFile(FILE);
+    assertEquals(List.of(), catalog.load());
+    assertTrue(INVALID.exists());
+    catalog.logCreate(entry("a"));
+    assertEquals(List.of("a"), new CatalogFile(FILE).load().stream().map(TableEntry::getTableName).toList());
+  }
+
+  @Test
+  void testBadSnapshotWithALogIsAnError() throws Exception {
+    CatalogFile catalog = new CatalogFile(FILE);
+    catalog.compact(List.of());
+    catalog.logCreate(entry("a"));
+    Files.write(FILE.toPath(), new byte[] { (byte) 0xAC, (byte) 0xED, 0x00, 0x05 });
+
+    // the log only makes sense on top of its snapshot -> nothing is thrown away
+    assertThrows(IOException.class, () -> new CatalogFile(FILE).load());
+  }
+}
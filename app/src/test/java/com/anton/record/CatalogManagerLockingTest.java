@@ -0,0 +1,88 @@
+package com.anton.record;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.*;
+
+class CatalogManagerLockingTest {
+  private static final String CATALOG_FILE = "test_locking_catalog.db";
+
+  @BeforeEach
+  @AfterEach
+  void cleanup() {
+    new File(CATALOG_FILE).delete();
+    new File(CATALOG_FILE + ".log").delete();
+    new File("storage/bios.tbl").delete();
+  }
+
+  @Test
+  void testQueriesOnlyWaitForTheirOwnTable() throws Exception {
+    CatalogManager cm = new CatalogManager(CATALOG_FILE);
+    List<Column> cols = List.of(new Column("id", DataType.INT));
+    Table slow = cm.createTable("slow_scans", cols);
+    cm.createTable("fast_inserts", cols);
+    cm.insertTuple("slow_scans", new Tuple(Map.of("id", 1)));
+
+    // a long running scan holds the read lock of its table
+    slow.getLock().readLock().lock();
+    boolean locked = true;
+    try {
+      // other tables and other readers of the same table go on
+      CompletableFuture.runAsync(() -> {
+        try {
+          cm.insertTuple("fast_inserts", new Tuple(Map.of("id", 2)));
+          assertEquals(1, cm.selectTuples("slow_scans", null, null).size());
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }).get(5, TimeUnit.SECONDS);
+
+      // writers of the same table wait
+      CompletableFuture<Void> insert = CompletableFuture.runAsync(() -> {
+        try {
+          cm.insertTuple("slow_scans", new Tuple(Map.of("id", 3)));
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+      assertThrows(TimeoutException.class, () -> insert.get(200, TimeUnit.MILLISECONDS));
+      slow.getLock().readLock().unlock();
+      locked = false;
+      insert.get(5, TimeUnit.SECONDS);
+    } finally {
+      if (locked) {
+        slow.getLock().readLock().unlock();
+      }
+    }
+
+    assertEquals(2, cm.selectTuples("slow_scans", null, null).size());
+    cm.dropTable("slow_scans");
+    cm.dropTable("fast_inserts");
+    // a query on a dropped table fails like one on a table that never existed
+    assertThrows(IllegalArgumentException.class, () -> cm.selectTuples("slow_scans", null, null));
+    cm.close();
+  }
+
+  @Test
+  void testSelectedRowsDoNotReadTheTableAfterTheLockIsReleased() throws Exception {
+    CatalogManager cm = new CatalogManager(CATALOG_FILE);
+    cm.createTable("bios", List.of(new Column("id", DataType.INT), new Column("bio", DataType.STRING)));
+    String bio = "b".repeat(3000); // stored in overflow pages
+    cm.insertTuple("bios", new Tuple(Map.of("id", 1, "bio", bio)));
+
+    List<Tuple> rows = cm.selectTuples("bios", null, null);
+    // the table (and its overflow pages) is gone before the value is read
+    cm.dropTable("bios");
+    cm.awaitReclaimed();
+    assertEquals(1, rows.get(0).getValue("id"));
+    assertEquals(bio, rows.get(0).getValue("bio"));
+    cm.close();
+  }
+}
@@ -4,6 +4,10 @@ import org.junit.jupiter.api.*;
 
 import com.anton.storage.RecordId;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
@@ -15,7 +19,7 @@ class CatalogManagerPersistenceTest {
   @BeforeEach
   void cleanupBefore() {
     // Ensure clean file before each run
-    java.io.File f = new java.io.File(CATALOG_FILE);
+    File f = new File(CATALOG_FILE);
     if (f.exists())
       f.delete();
   }
@@ -40,7 +44,8 @@ class CatalogManagerPersistenceTest {
     Tuple t = new Tuple(Map.of("id", 123, "name", "Alice"));
     savedId = students.insert(t);
 
-    // 4) Simulate JVM restart → create new CatalogManager
+    // 4) Simulate JVM restart → close (flushes the buffered pages) and create new CatalogManager
+    cm1.close();
     cm1 = null; // drop reference
     CatalogManager cm2 = new CatalogManager(CATALOG_FILE);
 
@@ -54,4 +59,45 @@ class CatalogManagerPersistenceTest {
     assertEquals(123, readBack.getValue("id"));
     assertEquals("Alice", readBack.getValue("name"));
   }
+
+  @Test
+  void testRowsAreNotWrittenToTheCatalog() throws Exception {
+    CatalogManager cm1 = new CatalogManager(CATALOG_FILE);
+    cm1.createTable("visits", List.of(new Column("id", DataType.INT)));
+    byte[] catalog = Files.readAllBytes(Path.of(CATALOG_FILE));
+
+    for (int i = 0; i < 100; i++) {
+      cm1.insertTuple("visits", new Tuple(Map.of("id", i)));
+    }
+    cm1.deleteTuple("visits", Map.of("id", 7));
+    // inserts and deletes never touch the catalog
+    assertArrayEquals(catalog, Files.readAllBytes(Path.of(CATALOG_FILE)));
+    cm1.close();
+
+    // the rows are found again in the heap pages
+    CatalogManager cm2 = new CatalogManager(CATALOG_FILE);
+    Table reloaded = cm2.getTableSchema("visits");
+    assertEquals(99, reloaded.getTupleIds().size());
+    assertEquals(99, reloaded.selectAll(null).size());
+    cm2.dropTable("visits");
+    cm2.close();
+  }
+
+  @Test
+  void testTableIsOnlyPublishedOnceLogged() throws Exception {
+    CatalogManager cm = new CatalogManager(CATALOG_FILE);
+    // the log can not be appended to
+    File log = new File(CATALOG_FILE + ".log");
+    log.delete();
+    log.mkdir();
+    try {
+      assertThrows(IOException.class, () -> cm.createTable("unlogged", List.of(new Column("id", DataType.INT))));
+      assertFalse(cm.listTables().contains("unlogged"));
+      assertNull(cm.getTableSchema("unlogged"));
+    } finally {
+      log.delete();
+      new File("storage/unlogged.tbl").delete();
+      cm.close();
+    }
+  }
 }
@@ -0,0 +1,59 @@
+package com.anton.record;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.*;
+
+class OpenTablesTest {
+  private static final String CATALOG_FILE = "test_open_tables_catalog.db";
+  private static final List<String> NAMES = List.of("lru_a", "lru_b", "lru_c", "lru_d");
+
+  @BeforeEach
+  @AfterEach
+  void cleanup() {
+    new File(CATALOG_FILE).delete();
+    new File(CATALOG_FILE + ".log").delete();
+    for (String name : NAMES) {
+      new File("storage/" + name + ".tbl").delete();
+    }
+  }
+
+  @Test
+  void testTablesAreOpenedOnFirstUseAndIdleOnesClosed() throws Exception {
+    CatalogManager cm1 = new CatalogManager(CATALOG_FILE, 2);
+    List<Column> cols = List.of(new Column("id", DataType.INT));
+    for (String name : NAMES) {
+      cm1.createTable(name, cols);
+    }
+    cm1.close();
+
+    // loading the catalog opens no table file
+    CatalogManager cm2 = new CatalogManager(CATALOG_FILE, 2);
+    for (String name : NAMES) {
+      assertFalse(cm2.getTableSchema(name).isOpen());
+    }
+
+    for (int round = 0; round < 3; round++) {
+      for (String name : NAMES) {
+        cm2.insertTuple(name, new Tuple(Map.of("id", round)));
+        long open = NAMES.stream().filter(n -> cm2.getTableSchema(n).isOpen()).count();
+        assertTrue(open <= 2, open + " tables open");
+      }
+    }
+    // the least recently used tables were closed, their rows flushed
+    assertFalse(cm2.getTableSchema("lru_a").isOpen());
+    assertTrue(cm2.getTableSchema("lru_d").isOpen());
+    for (String name : NAMES) {
+      assertEquals(3, cm2.selectTuples(name, null, null).size());
+    }
+
+    for (String name : NAMES) {
+      cm2.dropTable(name);
+    }
+    cm2.close();
+  }
+}
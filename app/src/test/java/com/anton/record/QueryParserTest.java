@@ -1,6 +1,7 @@
 package com.anton.record;
 
 import com.anton.sql.QueryExecutor;
+import com.anton.sql.QueryParser;
 import org.junit.jupiter.api.*;
 
 import java.io.IOException;
@@ -59,6 +60,41 @@ class QueryParserTest {
     assertEquals("Anton", row2.getValue("name"));
   }
 
+  @Test
+  void testMultiRowInsert() throws Exception {
+    executor.execute("CREATE TABLE users (id INT, name STRING)");
+    executor.execute("INSERT INTO users VALUES ('id' 1, 'name' 'Saad'), ('id' 2, 'name' 'Anton'), ('id' 3, 'name' 'Ada')");
+
+    var result = executor.execute("SELECT * FROM users");
+    assertEquals(3, result.size());
+    assertEquals("Ada", result.get(2).getValue("name"));
+  }
+
+  @Test
+  void testMalformedRowSeparatorIsRejected() {
+    QueryParser parser = new QueryParser();
+    assertThrows(IllegalArgumentException.class,
+        () -> parser.parse("INSERT INTO users VALUES ('id' 1, 'name' 'Saad') OR ('id' 2, 'name' 'Anton')"));
+    assertThrows(IllegalArgumentException.class,
+        () -> parser.parse("INSERT INTO users VALUES ('id' 1, 'name' 'Saad');"));
+    assertThrows(IllegalArgumentException.class,
+        () -> parser.parse("INSERT INTO users VALUES ('id' 1, 'name' 'Saad'),"));
+    assertNotNull(parser.parse("INSERT INTO users VALUES ('id' 1, 'name' 'Saad') ,  ('id' 2, 'name' 'Anton')"));
+  }
+
+  @Test
+  void testCreateMemoryMappedTable() throws Exception {
+    executor.execute("CREATE TABLE countries (code STRING) WITH (mmap = true)");
+    assertTrue(db.getTableSchema("countries").getOptions().isMemoryMapped());
+
+    executor.execute("INSERT INTO countries VALUES ('code' 'IN')");
+    var result = executor.execute("SELECT * FROM countries");
+
+    assertNotNull(result);
+    assertEquals(1, result.size());
+    assertEquals("IN", result.get(0).getValue("code"));
+  }
+
   @AfterAll
   static void tearDown() {
     // delete test catalog file
@@ -0,0 +1,66 @@
+package com.anton.record;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.*;
+
+public class RecordPredicateTest {
+  private final List<Column> schema = List.of(
+      new Column("id", DataType.INT),
+      new Column("name", DataType.STRING),
+      new Column("city", DataType.STRING));
+
+  private boolean test(Map<String, Object> conditions, Map<String, Object> row) {
+    byte[] data = new Tuple(row).toBytes(schema);
+    // the record somewhere in the middle of a page
+    ByteBuffer page = ByteBuffer.allocate(data.length + 20);
+    page.put(10, data);
+    return RecordPredicate.compile(new TupleCodec(schema), conditions).test(page, 10, data.length);
+  }
+
+  @Test
+  void testConditionsAreEvaluatedOnTheBytes() {
+    Map<String, Object> row = Map.of("id", 7, "name", "Ada", "city", "London");
+
+    assertTrue(test(Map.of("id", 7), row));
+    assertTrue(test(Map.of("id", "7", "city", "London"), row));
+    assertTrue(test(Map.of("name", "Ada"), row));
+    assertFalse(test(Map.of("id", 8), row));
+    assertFalse(test(Map.of("name", "Adam"), row));
+    assertFalse(test(Map.of("id", 7, "city", "Paris"), row));
+  }
+
+  @Test
+  void testLiteralsAreComparedAsColumnType() {
+    Map<String, Object> row = Map.of("id", 7, "name", "Ada", "city", "London");
+
+    // INT literals are compared as ints, not as text
+    assertTrue(test(Map.of("id", "07"), row));
+    assertTrue(test(Map.of("id", "-0"), Map.of("id", 0)));
+    assertFalse(test(Map.of("id", "seven"), row));
+    // no such column -> no value to compare with
+    assertFalse(test(Map.of("country", "UK"), row));
+    // NULL never matches
+    assertFalse(test(Map.of("name", "Ada"), Map.of("id", 7, "city", "London")));
+    assertTrue(test(Map.of("city", "London"), Map.of("id", 7, "city", "London")));
+  }
+
+  @Test
+  void testDecodedRowsHaveTheSameSemantics() {
+    TupleCodec codec = new TupleCodec(schema);
+    Tuple row = codec.decode(codec.encode(new Tuple(Map.of("id", 7, "name", "Ada"))), null, null);
+
+    assertTrue(RecordPredicate.compile(codec, Map.of("id", "07", "name", "Ada")).test(row));
+    assertFalse(RecordPredicate.compile(codec, Map.of("id", 7, "name", "Adam")).test(row));
+    assertFalse(RecordPredicate.compile(codec, Map.of("city", "London")).test(row));
+    assertFalse(RecordPredicate.compile(codec, Map.of("id", "seven")).test(row));
+
+    // ordering of the typed values, not of their text
+    assertTrue(DataType.INT.compare(DataType.INT.parse("9"), DataType.INT.parse("10")) < 0);
+    assertTrue(DataType.STRING.compare(DataType.STRING.parse("9"), DataType.STRING.parse("10")) > 0);
+  }
+}
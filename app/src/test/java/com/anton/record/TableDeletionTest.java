@@ -3,6 +3,10 @@ package com.anton.record;
 import org.junit.jupiter.api.*;
 import static org.junit.jupiter.api.Assertions.*;
 import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 class TableDeletionTest {
   private static final String CATALOG_FILE = "test_catalog.db";
@@ -13,6 +17,7 @@ class TableDeletionTest {
     if (f.exists()) f.delete();
     File t1 = new File("storage/table1.tbl");
     if (t1.exists()) t1.delete();
+    new File("storage/table1~1.tbl").delete();
     File t2 = new File("storage/table2.tbl");
     if (t2.exists()) t2.delete();
   }
@@ -22,22 +27,22 @@ class TableDeletionTest {
     CatalogManager catalog = new CatalogManager(CATALOG_FILE);
 
     // Create two tables
-    catalog.createTable("table1", java.util.Arrays.asList(
+    catalog.createTable("table1", Arrays.asList(
       new Column("id", DataType.INT),
       new Column("name", DataType.STRING)
     ));
-    catalog.createTable("table2", java.util.Arrays.asList(
+    catalog.createTable("table2", Arrays.asList(
       new Column("id", DataType.INT),
       new Column("value", DataType.STRING)
     ));
 
     // Insert some data
-    java.util.Map<String, Object> data1 = new java.util.HashMap<>();
+    Map<String, Object> data1 = new HashMap<>();
     data1.put("id", 1);
     data1.put("name", "test1");
     catalog.insertTuple("table1", new Tuple(data1));
 
-    java.util.Map<String, Object> data2 = new java.util.HashMap<>();
+    Map<String, Object> data2 = new HashMap<>();
     data2.put("id", 2);
     data2.put("value", "test2");
     catalog.insertTuple("table2", new Tuple(data2));
@@ -48,20 +53,82 @@ class TableDeletionTest {
     // Delete first table
     catalog.dropTable("table1");
     assertFalse(catalog.listTables().contains("table1"));
+    // the file is deleted in the background
+    catalog.awaitReclaimed();
     assertTrue(new File("storage/table1.tbl").exists() == false);
 
     // Delete second table
     catalog.dropTable("table2");
     assertFalse(catalog.listTables().contains("table2"));
+    catalog.awaitReclaimed();
     assertTrue(new File("storage/table2.tbl").exists() == false);
   }
 
+  @Test
+  void testDropDoesNotWaitForRunningQueries() throws Exception {
+    CatalogManager catalog = new CatalogManager(CATALOG_FILE);
+    Table table = catalog.createTable("table1", List.of(new Column("id", DataType.INT)));
+    catalog.insertTuple("table1", new Tuple(Map.of("id", 1)));
+
+    // a query still running on the table
+    table.getLock().readLock().lock();
+    try {
+      long start = System.nanoTime();
+      catalog.dropTable("table1");
+      assertTrue(System.nanoTime() - start < 1_000_000_000L, "drop waited for the query");
+      assertFalse(catalog.listTables().contains("table1"));
+      assertThrows(IllegalArgumentException.class, () -> catalog.selectTuples("table1", null, null));
+
+      // the running query can still read its rows
+      Thread.sleep(100);
+      assertTrue(new File("storage/table1.tbl").exists());
+      assertEquals(1, table.getTupleIds().size());
+    } finally {
+      table.getLock().readLock().unlock();
+    }
+
+    catalog.awaitReclaimed();
+    assertFalse(new File("storage/table1.tbl").exists());
+    // the name can be used again right away
+    catalog.createTable("table1", List.of(new Column("id", DataType.INT)));
+    assertEquals(0, catalog.selectTuples("table1", null, null).size());
+    catalog.dropTable("table1");
+    catalog.close();
+  }
+
+  @Test
+  void testCreateDoesNotWaitForADroppedTableOfTheSameName() throws Exception {
+    CatalogManager catalog = new CatalogManager(CATALOG_FILE);
+    Table dropped = catalog.createTable("table1", List.of(new Column("id", DataType.INT)));
+    catalog.insertTuple("table1", new Tuple(Map.of("id", 1)));
+
+    dropped.getLock().readLock().lock();
+    try {
+      catalog.dropTable("table1");
+      long start = System.nanoTime();
+      Table created = catalog.createTable("table1", List.of(new Column("id", DataType.INT)));
+      assertTrue(System.nanoTime() - start < 1_000_000_000L, "create waited for the reclaimer");
+      // a file of its own -> the reclaimer of the old table can not delete it
+      assertNotEquals(dropped.getFileName(), created.getFileName());
+      assertEquals(0, catalog.selectTuples("table1", null, null).size());
+      assertEquals(1, dropped.getTupleIds().size());
+    } finally {
+      dropped.getLock().readLock().unlock();
+    }
+
+    catalog.awaitReclaimed();
+    assertEquals(0, catalog.selectTuples("table1", null, null).size());
+    catalog.dropTable("table1");
+    catalog.close();
+  }
+
   @AfterEach
   void cleanupAfter() {
     File f = new File(CATALOG_FILE);
     if (f.exists()) f.delete();
     File t1 = new File("storage/table1.tbl");
     if (t1.exists()) t1.delete();
+    new File("storage/table1~1.tbl").delete();
     File t2 = new File("storage/table2.tbl");
     if (t2.exists()) t2.delete();
   }
@@ -0,0 +1,113 @@
+package com.anton.record;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.*;
+
+import com.anton.storage.BufferPoolStats;
+import com.anton.storage.PageManager;
+import com.anton.storage.RecordId;
+
+class TableScanTest {
+  private static final String TABLE_FILE = "events.tbl";
+
+  @BeforeEach
+  @AfterEach
+  void cleanup() {
+    new File(TABLE_FILE).delete();
+  }
+
+  @Test
+  void testParallelSelectKeepsPageOrder() throws Exception {
+    List<Column> cols = List.of(
+        new Column("id", DataType.INT),
+        new Column("kind", DataType.STRING));
+    Table table = new Table("events", cols, TABLE_FILE);
+
+    // enough rows for many partitions
+    List<Tuple> rows = new ArrayList<>();
+    for (int i = 0; i < 20_000; i++) {
+      rows.add(new Tuple(Map.of("id", i, "kind", i % 2 == 0 ? "even" : "odd")));
+    }
+    table.insertAll(rows);
+    assertTrue(table.getRecordManager().getNumOfPages() > 4 * PartitionedScan.MIN_PARTITION_PAGES);
+
+    List<Tuple> odd = table.select(Map.of("kind", "odd"), List.of("id"));
+    assertEquals(10_000, odd.size());
+    for (int i = 0; i < odd.size(); i++) {
+      assertEquals(2 * i + 1, odd.get(i).getValue("id"));
+    }
+
+    table.delete(Map.of("kind", "even"));
+    assertEquals(10_000, table.selectAll(null).size());
+    table.close();
+  }
+  @Test
+  void testParallelSelectDoesNotEvictHotPages() throws Exception {
+    List<RecordId> hot = new ArrayList<>();
+    Table table = tableWithHotPages(hot);
+
+    assertEquals(20_000, table.selectAll(null).size());
+    assertHotPagesCached(table, hot);
+    table.close();
+  }
+
+  @Test
+  void testSequentialScanDoesNotEvictHotPages() throws Exception {
+    List<RecordId> hot = new ArrayList<>();
+    Table table = tableWithHotPages(hot);
+
+    // read ahead runs next to the scan and must not take the frames of its ring
+    int count = 0;
+    Iterator<Tuple> rows = table.scan();
+    while (rows.hasNext()) {
+      rows.next();
+      count++;
+    }
+    assertEquals(20_000, count);
+    assertHotPagesCached(table, hot);
+    table.close();
+  }
+
+  // a table several times the size of the buffer pool, one row of each of its first 20 pages read as regular accesses
+  private Table tableWithHotPages(List<RecordId> hot) throws Exception {
+    List<Column> cols = List.of(
+        new Column("id", DataType.INT),
+        new Column("kind", DataType.STRING));
+    Table table = new Table("events", cols, TABLE_FILE);
+    List<Tuple> rows = new ArrayList<>();
+    for (int i = 0; i < 20_000; i++) {
+      rows.add(new Tuple(Map.of("id", i, "kind", "k".repeat(30))));
+    }
+    table.insertAll(rows);
+    table.close();
+
+    int lastPage = -1;
+    for (RecordId id : table.getTupleIds()) {
+      if (id.getPageNumber() != lastPage && hot.size() < 20) {
+        hot.add(id);
+        lastPage = id.getPageNumber();
+      }
+    }
+    assertTrue(table.getRecordManager().getNumOfPages() > 3 * PageManager.DEFAULT_POOL_SIZE);
+    for (RecordId id : hot) {
+      table.read(id);
+    }
+    return table;
+  }
+
+  private static void assertHotPagesCached(Table table, List<RecordId> hot) throws Exception {
+    BufferPoolStats before = table.getRecordManager().getBufferPoolStats();
+    for (RecordId id : hot) {
+      table.read(id);
+    }
+    BufferPoolStats after = table.getRecordManager().getBufferPoolStats();
+    assertEquals(before.getMisses(), after.getMisses(), "hot pages were evicted by the scan");
+  }
+}
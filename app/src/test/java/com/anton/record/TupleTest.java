@@ -3,6 +3,8 @@ package com.anton.record;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -11,6 +13,12 @@ import org.junit.jupiter.api.*;
 import com.anton.storage.RecordId;
 
 public class TupleTest {
+  @BeforeEach
+  @AfterEach
+  void cleanup() {
+    new File("authors.tbl").delete();
+  }
+
   @Test
   void testInsertTuple() throws Exception {
     List<Column> cols = List.of(
@@ -40,11 +48,109 @@ public class TupleTest {
     RecordId id = table.insert(tuple);
     assertNotNull(id);
     // Delete the tuple
-    java.util.Map<String, Object> cond = Map.of("id", 2);
+    Map<String, Object> cond = Map.of("id", 2);
     table.delete(cond);
     // After deletion, reading should throw or return null
     assertThrows(Exception.class, () -> table.read(id));
     // tupleIds should not contain the deleted id
     assertFalse(table.getTupleIds().contains(id));
   }
+
+  @Test
+  void testLargeStringIsStoredInOverflowPages() throws Exception {
+    List<Column> cols = List.of(
+        new Column("id", DataType.INT),
+        new Column("bio", DataType.STRING));
+    Table table = new Table("authors", cols, "authors.tbl");
+    String bio = "x".repeat(20_000); // larger than a page
+
+    RecordId id = table.insert(new Tuple(Map.of("id", 3, "bio", bio)));
+    Tuple readTuple = table.read(id);
+    assertEquals(1, readTuple.getOverflowValues().size());
+    assertEquals(3, readTuple.getValue("id"));
+    assertEquals(bio, readTuple.getValue("bio"));
+
+    table.delete(Map.of("id", 3));
+    assertThrows(Exception.class, () -> table.read(id));
+    table.close();
+  }
+
+  @Test
+  void testFailedInsertLeavesNoOverflowPagesBehind() throws Exception {
+    List<Column> cols = List.of(
+        new Column("id", DataType.INT),
+        new Column("bio", DataType.STRING));
+    Table table = new Table("authors", cols, "authors.tbl");
+    String bio = "x".repeat(3000);
+    table.insert(new Tuple(Map.of("id", 1, "bio", bio)));
+    int pages = table.getRecordManager().getNumOfPages();
+
+    for (int i = 0; i < 50; i++) {
+      assertThrows(IllegalArgumentException.class, () -> table.insert(new Tuple(Map.of("id", "not a number", "bio", bio))));
+    }
+    assertEquals(pages, table.getRecordManager().getNumOfPages());
+    assertEquals(1, table.getTupleIds().size());
+    table.close();
+  }
+
+  @Test
+  void testCodecRoundTrip() {
+    TupleCodec codec = new TupleCodec(List.of(
+        new Column("id", DataType.INT),
+        new Column("name", DataType.STRING)));
+
+    // values from the parser arrive as text
+    byte[] data = codec.encode(new Tuple(Map.of("name", "Zoë", "id", "42")));
+    Tuple decoded = codec.decode(data, null, null);
+
+    assertSame(codec.getLayout(), decoded.getLayout());
+    assertEquals(42, decoded.getValue(0));
+    assertEquals("Zoë", decoded.getValue("name"));
+    assertNull(decoded.getValue("missing"));
+    assertEquals(List.of("id", "name"), List.copyOf(decoded.getValues().keySet()));
+    assertArrayEquals(data, codec.encode(decoded));
+  }
+
+  @Test
+  void testMissingValuesAreNull() {
+    TupleCodec codec = new TupleCodec(List.of(
+        new Column("id", DataType.INT),
+        new Column("name", DataType.STRING),
+        new Column("age", DataType.INT),
+        new Column("city", DataType.STRING)));
+
+    byte[] full = codec.encode(new Tuple(Map.of("id", 1, "name", "Ada", "age", 36, "city", "London")));
+    byte[] sparse = codec.encode(new Tuple(Map.of("id", 1, "age", 36)));
+    // a NULL string takes no space
+    assertEquals(full.length - "Ada".length() - "London".length(), sparse.length);
+
+    Tuple decoded = codec.decode(sparse, null, null);
+    assertEquals(1, decoded.getValue("id"));
+    assertNull(decoded.getValue("name"));
+    assertEquals(36, decoded.getValue("age"));
+    assertNull(decoded.getValue("city"));
+
+    // any column is reachable without decoding the others
+    ByteBuffer row = ByteBuffer.wrap(full);
+    assertEquals(36, codec.getInt(row, 0, 2));
+    assertEquals("London", new String(full, codec.getVarStart(row, 0, 3), codec.getVarLength(row, 0, 3)));
+  }
+
+  @Test
+  void testColumnsAreDecodedOnRead() {
+    TupleCodec codec = new TupleCodec(List.of(
+        new Column("id", DataType.INT),
+        new Column("name", DataType.STRING),
+        new Column("bio", DataType.STRING)));
+
+    byte[] data = codec.encode(new Tuple(Map.of("id", 7, "name", "Ada", "bio", "Analyst")));
+    // break the end offset of bio (second entry of the offset table, after the bitmaps and id)
+    ByteBuffer.wrap(data).putShort(2 + 4 + 2, (short) 0xFFFF);
+
+    Tuple decoded = codec.decode(data, null, null);
+    // bio is never touched while only id and name are read
+    assertEquals(7, decoded.getValue("id"));
+    assertEquals("Ada", decoded.getValue("name"));
+    assertThrows(IndexOutOfBoundsException.class, () -> decoded.getValue("bio"));
+  }
 }
@@ -2,6 +2,11 @@ package com.anton.storage;
 
 import org.junit.jupiter.api.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -37,4 +42,65 @@ class FileManagerTest {
 
     assertEquals("Hello", new String(buffer));
   }
+
+  @Test
+  void testConcurrentPositionalReads() throws Exception {
+    // 8 blocks of 4KB, every block filled with its own index
+    for (int i = 0; i < 8; i++) {
+      byte[] block = new byte[4096];
+      Arrays.fill(block, (byte) i);
+      fileManager.write(block, (long) i * 4096);
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 32; t++) {
+        final int block = t % 8;
+        results.add(pool.submit(() -> {
+          ByteBuffer buffer = DirectBufferPool.acquire(4096);
+          try {
+            fileManager.read(buffer, (long) block * 4096);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+              if (buffer.get() != (byte) block) return false;
+            }
+            return true;
+          } finally {
+            DirectBufferPool.release(buffer);
+          }
+        }));
+      }
+
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void testReadPastEndOfFile() throws Exception {
+    fileManager.write("Hi".getBytes(), 0);
+    assertThrows(EOFException.class, () -> fileManager.read(0, 10));
+  }
+
+  @Test
+  void testMemoryMappedReadWriteAndReopen() throws Exception {
+    fileManager.close();
+    try (FileManager mapped = new FileManager(tempFile.getAbsolutePath(), true)) {
+      mapped.write("Hello".getBytes(), 4096);
+      assertEquals(4096 + 5, mapped.getFileLength());
+      assertEquals("Hello", new String(mapped.read(4096, 5)));
+
+      ByteBuffer view = mapped.slice(4096, 5);
+      assertEquals('H', view.get(0));
+    }
+
+    // the zero filled tail of the mapping is cut off on close
+    assertEquals(4096 + 5, tempFile.length());
+    fileManager = new FileManager(tempFile.getAbsolutePath());
+    assertEquals("Hello", new String(fileManager.read(4096, 5)));
+  }
 }
@@ -0,0 +1,329 @@
+package com.anton.storage;
+
+import org.junit.jupiter.api.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageManagerTest {
+  private File tempFile;
+  private PageManager pageManager;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    tempFile = File.createTempFile("pagemanager_test", ".db");
+    tempFile.deleteOnExit();
+    pageManager = new PageManager(new FileManager(tempFile.getAbsolutePath()), 2);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    pageManager.close();
+    tempFile.delete();
+  }
+
+  @Test
+  void testEvictedDirtyPageIsWrittenBack() throws IOException {
+    Page page = pageManager.fetchPage(1);
+    page.setData("page one".getBytes());
+    pageManager.unpinPage(1, true);
+
+    // touch more pages than the pool has frames so page 1 gets evicted
+    for (int i = 2; i <= 4; i++) {
+      pageManager.fetchPage(i);
+      pageManager.unpinPage(i, false);
+    }
+
+    Page reloaded = pageManager.fetchPage(1);
+    assertEquals("page one", new String(reloaded.getData(), 0, 8));
+    pageManager.unpinPage(1, false);
+  }
+
+  @Test
+  void testPinnedPagesAreNotEvicted() throws IOException {
+    pageManager.fetchPage(1);
+    pageManager.fetchPage(2);
+
+    assertThrows(IllegalStateException.class, () -> pageManager.fetchPage(3));
+
+    pageManager.unpinPage(2, false);
+    assertNotNull(pageManager.fetchPage(3));
+    pageManager.unpinPage(3, false);
+    pageManager.unpinPage(1, false);
+  }
+
+  @Test
+  void testBackgroundFlusherWritesDirtyPages() throws Exception {
+    try (PageManager flushed = new PageManager(new FileManager(tempFile.getAbsolutePath()), 4, 20)) {
+      Page page = flushed.fetchPage(1);
+      page.setData("flushed".getBytes());
+      flushed.unpinPage(1, true);
+      assertEquals(1, flushed.getNumOfDirtyPages());
+
+      // the flusher runs every 20ms
+      for (int i = 0; i < 100 && flushed.getNumOfDirtyPages() > 0; i++) {
+        Thread.sleep(20);
+      }
+      assertEquals(0, flushed.getNumOfDirtyPages());
+
+      Page onDisk = new Page();
+      try (FileManager reader = new FileManager(tempFile.getAbsolutePath())) {
+        onDisk.readFromFile(reader, 1);
+      }
+      assertEquals("flushed", new String(onDisk.getData(), 0, 7));
+    }
+  }
+
+  @Test
+  void testSequentialAccessReadsAhead() throws Exception {
+    for (int i = 1; i <= 20; i++) {
+      pageManager.fetchPage(i).setData(("page " + i).getBytes());
+      pageManager.unpinPage(i, true);
+    }
+    pageManager.close();
+
+    pageManager = new PageManager(new FileManager(tempFile.getAbsolutePath()), 16, 0);
+    pageManager.setPrefetchWindow(4);
+    for (int i = 1; i <= 3; i++) {
+      pageManager.fetchPage(i);
+      pageManager.unpinPage(i, false);
+    }
+
+    // read ahead happens on a background thread
+    for (int i = 0; i < 100 && !pageManager.isCached(7); i++) {
+      Thread.sleep(10);
+    }
+    for (int i = 4; i <= 7; i++) {
+      assertTrue(pageManager.isCached(i));
+    }
+    assertFalse(pageManager.isCached(8));
+
+    Page page = pageManager.fetchPage(5);
+    assertEquals("page 5", new String(page.getData(), 0, 6));
+    pageManager.unpinPage(5, false);
+  }
+
+  @Test
+  void testScanDoesNotEvictHotPages() throws Exception {
+    for (int i = 1; i <= 40; i++) {
+      pageManager.fetchPage(i);
+      pageManager.unpinPage(i, true);
+    }
+    pageManager.close();
+
+    pageManager = new PageManager(new FileManager(tempFile.getAbsolutePath()), 8, 0);
+    pageManager.setPrefetchWindow(0);
+    // hot pages
+    for (int i = 1; i <= 4; i++) {
+      pageManager.fetchPage(i);
+      pageManager.unpinPage(i, false);
+    }
+
+    PageManager.ScanRing ring = pageManager.newScanRing();
+    for (int i = 5; i <= 40; i++) {
+      pageManager.fetchPage(i, ring);
+      pageManager.unpinPage(i, false);
+    }
+
+    for (int i = 1; i <= 4; i++) {
+      assertTrue(pageManager.isCached(i));
+      pageManager.fetchPage(i);
+      pageManager.unpinPage(i, false);
+    }
+    BufferPoolStats stats = pageManager.getStats();
+    assertEquals(4, stats.getHits());
+    assertEquals(4, stats.getMisses());
+    assertEquals(36, stats.getScanMisses());
+    assertEquals(0.5, stats.getHitRatio());
+  }
+
+  @Test
+  void testConcurrentMissesReadInParallel() throws Exception {
+    for (int i = 1; i <= 4; i++) {
+      pageManager.fetchPage(i).setData(("page " + i).getBytes());
+      pageManager.unpinPage(i, true);
+    }
+    pageManager.close();
+
+    // every read waits until two reads are in flight -> misses serialized under the pool lock never get there
+    CountDownLatch bothReading = new CountDownLatch(2);
+    AtomicBoolean gated = new AtomicBoolean(false);
+    FileManager slowDisk = new FileManager(tempFile.getAbsolutePath()) {
+      @Override
+      public void read(ByteBuffer dst, long position) throws IOException {
+        if (gated.get()) {
+          bothReading.countDown();
+          try {
+            if (!bothReading.await(5, TimeUnit.SECONDS)) {
+              throw new IOException("Reads did not overlap");
+            }
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+          }
+        }
+        super.read(dst, position);
+      }
+    };
+    pageManager = new PageManager(slowDisk, 4, 0);
+    pageManager.setPrefetchWindow(0);
+    gated.set(true);
+
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> first = pool.submit(() -> fetchText(2));
+      Future<String> second = pool.submit(() -> fetchText(3));
+      assertEquals("page 2", first.get(10, TimeUnit.SECONDS));
+      assertEquals("page 3", second.get(10, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdownNow();
+    }
+    assertEquals(2, pageManager.getStats().getMisses());
+  }
+
+  @Test
+  void testMissWaitsForTheWriteBackOfItsOldPage() throws IOException {
+    Page page = pageManager.fetchPage(1);
+    page.setData("dirty".getBytes());
+    pageManager.unpinPage(1, true);
+    pageManager.fetchPage(2);
+    pageManager.unpinPage(2, false);
+
+    // page 1 is pushed out while dirty, fetching it again must see what was written into it
+    pageManager.fetchPage(3);
+    pageManager.unpinPage(3, false);
+    pageManager.fetchPage(4);
+    pageManager.unpinPage(4, false);
+    assertEquals("dirty", fetchText(1).substring(0, 5));
+  }
+
+  @Test
+  void testMemoryMappedFileNotClosedIsCutOnOpen() throws Exception {
+    File copy = File.createTempFile("pagemanager_crash", ".db");
+    copy.deleteOnExit();
+    try (PageManager mapped = new PageManager(new FileManager(tempFile.getAbsolutePath() + ".mmap", true), 8, 0)) {
+      for (int i = 1; i <= 3; i++) {
+        mapped.fetchPage(i).setData(("page " + i).getBytes());
+        mapped.unpinPage(i, true);
+      }
+      mapped.flushAll();
+      mapped.force();
+      // the file as a crash leaves it -> grown to the mapping chunk, never truncated by close
+      assertEquals(FileManager.MAPPING_CHUNK_SIZE, new File(tempFile.getAbsolutePath() + ".mmap").length());
+      Files.copy(Path.of(tempFile.getAbsolutePath() + ".mmap"), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      new File(tempFile.getAbsolutePath() + ".mmap").delete();
+    }
+
+    try (PageManager reopened = new PageManager(new FileManager(copy.getAbsolutePath(), true), 8, 0)) {
+      assertEquals(4, reopened.getNumOfPages());
+      Page page = reopened.fetchPage(3);
+      assertEquals("page 3", new String(page.getData(), 0, 6));
+      reopened.unpinPage(3, false);
+    }
+    assertEquals(4L * Page.DEFAULT_PAGE_SIZE, copy.length());
+    copy.delete();
+  }
+
+  @Test
+  void testReadAheadDoesNotTakeTheFramesOfAScanRing() throws Exception {
+    for (int i = 1; i <= 100; i++) {
+      pageManager.fetchPage(i);
+      pageManager.unpinPage(i, true);
+    }
+    pageManager.close();
+
+    pageManager = new PageManager(new FileManager(tempFile.getAbsolutePath()), 16, 0);
+    pageManager.setPrefetchWindow(3);
+    // hot pages, not in page order so they do not look like a scan
+    for (int pageNumber : new int[] { 90, 70, 50, 30, 10, 80, 60, 40, 95, 75, 55, 35 }) {
+      pageManager.fetchPage(pageNumber);
+      pageManager.unpinPage(pageNumber, false);
+    }
+    // a scan fills its ring (the rest of the pool) and is detected as sequential
+    PageManager.ScanRing ring = pageManager.newScanRing();
+    for (int i = 20; i <= 23; i++) {
+      pageManager.fetchPage(i, ring);
+      pageManager.unpinPage(i, false);
+    }
+
+    // the ring frames are the only clean unreferenced ones -> read ahead has nowhere to go and gives up
+    Thread.sleep(100);
+    for (int i = 20; i <= 23; i++) {
+      assertTrue(pageManager.isCached(i), "page " + i + " of the ring was pushed out by read ahead");
+    }
+    assertFalse(pageManager.isCached(24));
+  }
+
+  @Test
+  void testCloseWaitsForAFlushInProgress() throws Exception {
+    pageManager.close();
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicBoolean gated = new AtomicBoolean(false);
+    FileManager slowDisk = new FileManager(tempFile.getAbsolutePath()) {
+      @Override
+      public void write(ByteBuffer src, long position) throws IOException {
+        if (gated.getAndSet(false)) {
+          writing.countDown();
+          try {
+            release.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+          }
+        }
+        super.write(src, position);
+      }
+    };
+    pageManager = new PageManager(slowDisk, 4, 0);
+    pageManager.fetchPage(1).setData("flushed".getBytes());
+    pageManager.unpinPage(1, true);
+
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      gated.set(true);
+      Future<?> flush = pool.submit(() -> {
+        pageManager.flushDirtyPages(PageManager.FLUSH_BATCH_SIZE);
+        return null;
+      });
+      assertTrue(writing.await(5, TimeUnit.SECONDS));
+      Future<?> close = pool.submit(() -> {
+        pageManager.close();
+        return null;
+      });
+      // the batch still holds the page -> close must not drop the buffers under it
+      assertThrows(TimeoutException.class, () -> close.get(200, TimeUnit.MILLISECONDS));
+      release.countDown();
+      flush.get(5, TimeUnit.SECONDS);
+      close.get(5, TimeUnit.SECONDS);
+    } finally {
+      release.countDown();
+      pool.shutdownNow();
+    }
+
+    Page onDisk = new Page();
+    try (FileManager reader = new FileManager(tempFile.getAbsolutePath())) {
+      onDisk.readFromFile(reader, 1);
+    }
+    assertEquals("flushed", new String(onDisk.getData(), 0, 7));
+  }
+
+  @Test
+  void testHeaderPageIsNotHandedOut() {
+    assertThrows(IllegalArgumentException.class, () -> pageManager.fetchPage(PageManager.HEADER_PAGE));
+  }
+
+  private String fetchText(int pageNumber) throws IOException {
+    Page page = pageManager.fetchPage(pageNumber);
+    try {
+      return new String(page.getData(), 0, 6);
+    } finally {
+      pageManager.unpinPage(pageNumber, false);
+    }
+  }
+}
@@ -34,4 +34,66 @@ public class PageTest {
 
         assertEquals("Hello, DB!", new String(readPage.getData(), 0, data.length));
     }
+
+    @Test
+    void testSlottedPageRoundTrip() throws IOException {
+        Page page = new Page();
+        int first = page.insertRecord("first".getBytes());
+        int second = page.insertRecord("second".getBytes());
+        page.deleteRecord(first);
+        page.compact();
+
+        page.writeToFile(fileManager, 0);
+
+        Page readPage = new Page();
+        readPage.readFromFile(fileManager, 0);
+
+        assertEquals(2, readPage.getSlotsSize());
+        assertEquals("second", new String(readPage.readRecord(second)));
+        assertThrows(IllegalStateException.class, () -> readPage.readRecord(first));
+        assertEquals(Page.DEFAULT_PAGE_SIZE - Page.HEADER_SIZE - 2 * Page.SLOT_SIZE - 6, readPage.getFreeSpace());
+    }
+
+    @Test
+    void testInsertCompactsLazilyWhenSpaceIsFragmented() {
+        Page page = new Page();
+        byte[] record = new byte[1000];
+        int first = page.insertRecord(record);
+        page.insertRecord(record);
+        page.insertRecord(record);
+        page.insertRecord(record);
+        assertEquals(-1, page.insertRecord(record));
+
+        page.deleteRecord(first);
+        assertEquals(1000, page.getDeadBytes());
+        assertFalse(page.needsCompaction(0.25));
+
+        // only fits once the dead record is reclaimed, its slot is reused
+        assertEquals(first, page.insertRecord(record));
+        assertEquals(0, page.getDeadBytes());
+    }
+
+    @Test
+    void testDeletedSlotsAreReused() {
+        Page page = new Page();
+        int first = page.insertRecord("first".getBytes());
+        int second = page.insertRecord("second".getBytes());
+        int third = page.insertRecord("third".getBytes());
+
+        // queue like churn -> the slot directory does not grow
+        for (int i = 0; i < 100; i++) {
+            page.deleteRecord(first);
+            assertEquals(first, page.insertRecord(("row " + i).getBytes()));
+        }
+        assertEquals(3, page.getSlotsSize());
+
+        // dropping trailing deleted slots keeps the ids of live records
+        page.deleteRecord(third);
+        page.deleteRecord(first);
+        page.compact();
+        assertEquals(2, page.getSlotsSize());
+        assertEquals("second", new String(page.readRecord(second)));
+        assertEquals(first, page.insertRecord("again".getBytes()));
+        assertEquals(third, page.insertRecord("more".getBytes()));
+    }
 }
@@ -6,7 +6,9 @@ import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -44,6 +46,123 @@ public class RecordManagerTest {
     assertTrue(Arrays.equals(data, retrieved));
   }
 
+  @Test
+  void testBatchInsertPacksPages() throws IOException {
+    List<byte[]> records = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      records.add(("row " + i).getBytes());
+    }
+
+    List<RecordId> ids = recordManager.insertRecords(records);
+    assertEquals(100, ids.size());
+    // all of them fit in the first data page, in order
+    for (int i = 0; i < ids.size(); i++) {
+      assertEquals(ids.get(0).getPageNumber(), ids.get(i).getPageNumber());
+      assertEquals(i, ids.get(i).getSlotIndex());
+      assertEquals("row " + i, new String(recordManager.readRecord(ids.get(i))));
+    }
+  }
+
+  @Test
+  void testScanVisitsLiveRecordsInPhysicalOrder() throws IOException {
+    List<RecordId> ids = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      ids.add(recordManager.insertRecord(("row " + i).getBytes()));
+    }
+    recordManager.insertOverflow(new byte[10_000]); // overflow pages are not rows
+    for (int i = 0; i < 100; i += 2) {
+      recordManager.deleteRecord(ids.get(i));
+    }
+
+    RecordCursor cursor = recordManager.scan();
+    for (int i = 1; i < 100; i += 2) {
+      Record record = cursor.next();
+      assertEquals(ids.get(i), record.getId());
+      assertEquals("row " + i, new String(record.getData()));
+    }
+    assertFalse(cursor.hasNext());
+  }
+
+  @Test
+  void testFreeSpaceMapSurvivesReopen() throws IOException {
+    byte[] data = new byte[100];
+    RecordId last = null;
+    for (int i = 0; i < 100; i++) {
+      last = recordManager.insertRecord(data);
+    }
+    recordManager.close();
+
+    PageManager pageManager = new PageManager(new FileManager("test_records.db"));
+    int numOfPages = pageManager.getNumOfPages();
+    recordManager = new RecordManager(pageManager);
+
+    // only the last page still has room for it -> no new page is appended
+    RecordId id = recordManager.insertRecord(new byte[90]);
+    assertEquals(last.getPageNumber(), id.getPageNumber());
+    assertEquals(numOfPages, pageManager.getNumOfPages());
+  }
+
+  @Test
+  void testBulkDeletedSpaceIsReused() throws IOException {
+    List<RecordId> ids = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      ids.add(recordManager.insertRecord(new byte[100]));
+    }
+    int pageNumber = ids.get(0).getPageNumber();
+
+    // every other record -> tombstones spread over the page
+    List<RecordId> deleted = new ArrayList<>();
+    for (int i = 0; i < ids.size(); i += 2) {
+      deleted.add(ids.get(i));
+    }
+    recordManager.deleteRecords(deleted);
+    assertThrows(IllegalStateException.class, () -> recordManager.readRecord(deleted.get(0)));
+
+    // the page was compacted once for the whole batch, the freed bytes take the new records
+    for (int i = 0; i < 15; i++) {
+      assertEquals(pageNumber, recordManager.insertRecord(new byte[100]).getPageNumber());
+    }
+    assertTrue(Arrays.equals(new byte[100], recordManager.readRecord(ids.get(1))));
+  }
+
+  @Test
+  void testPageSizeIsKeptInTheFileHeader() throws IOException {
+    recordManager.close();
+    testFile.delete();
+
+    PageManager pageManager = new PageManager(new FileManager("test_records.db"), 8, 0, 16 * 1024);
+    recordManager = new RecordManager(pageManager);
+    // too large for a default 4KB page
+    byte[] data = new byte[10_000];
+    RecordId id = recordManager.insertRecord(data);
+    recordManager.close();
+
+    // reopened with the default page size -> the header wins
+    pageManager = new PageManager(new FileManager("test_records.db"));
+    recordManager = new RecordManager(pageManager);
+    assertEquals(16 * 1024, pageManager.getPageSize());
+    assertTrue(Arrays.equals(data, recordManager.readRecord(id)));
+  }
+
+  @Test
+  void testOverflowChainSpansPages() throws IOException {
+    byte[] value = new byte[10_000]; // more than two 4KB pages
+    for (int i = 0; i < value.length; i++) {
+      value[i] = (byte) i;
+    }
+    RecordId first = recordManager.insertOverflow(value);
+    assertTrue(Arrays.equals(value, recordManager.readOverflow(first, value.length)));
+
+    // rows never land on overflow pages
+    RecordId row = recordManager.insertRecord(new byte[100]);
+    assertNotEquals(first.getPageNumber(), row.getPageNumber());
+
+    // once the chain is gone its pages take rows again
+    recordManager.deleteOverflow(first);
+    RecordId reused = recordManager.insertRecord(new byte[4000]); // does not fit next to the row
+    assertTrue(reused.getPageNumber() < row.getPageNumber());
+  }
+
   // @Test
   // void testDeleteRecord() throws IOException {
   //   byte[] data = "Temporary Record".getBytes();